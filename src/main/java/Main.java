@@ -1,10 +1,24 @@
+import com.chat.core.ChatService;
+import com.chat.core.DeliveryCursorStore;
+import com.chat.core.MessageJournal;
+import com.chat.core.MessageWriter;
+import com.chat.core.ReadCursorStore;
+import com.chat.core.UnreadCounterStore;
 import com.chat.server.Server;
 import com.chat.utils.DatabaseManager;
+import com.chat.utils.MessageIdGenerator;
 
 public class Main {
     public static void main(String[] args) {
-        // Add a shutdown hook to gracefully close the database connection pool
-        Runtime.getRuntime().addShutdownHook(new Thread(DatabaseManager::shutdown));
+        // Add a shutdown hook: flush queued chat messages, read cursors, unread counters and delivery cursors, then close the database connection pool
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            MessageJournal.shutdown();
+            MessageWriter.shutdown();
+            ReadCursorStore.shutdown();
+            UnreadCounterStore.shutdown();
+            DeliveryCursorStore.shutdown();
+            DatabaseManager.shutdown();
+        }));
 
         // Force database connection pool initialization before starting the server
         System.out.println("Initializing database connection pool...");
@@ -16,6 +30,20 @@ public class Main {
             return; // Exit if DB connection fails
         }
 
+        // New message ids must stay above the ones already stored (guards against clock rollback across restarts)
+        try {
+            MessageIdGenerator.observe(new ChatService().getMaxMessageId());
+        } catch (Exception e) {
+            System.err.println("Failed to read the latest message id.");
+            e.printStackTrace();
+        }
+
+        MessageWriter.start();
+        MessageJournal.start();
+        ReadCursorStore.start();
+        UnreadCounterStore.start();
+        DeliveryCursorStore.start();
+
         Server server = new Server(12345);
         server.start();
     }
@@ -0,0 +1,19 @@
+package com.chat.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注在包上（package-info.java），编译期由 ProtocolCodecProcessor 为该包内的协议类生成流式 TypeAdapter
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.PACKAGE)
+public @interface GenerateCodecs {
+
+    /**
+     * 生成的 TypeAdapterFactory 的类名（与被标注的包同包）
+     */
+    String value() default "GeneratedProtocolAdapters";
+}
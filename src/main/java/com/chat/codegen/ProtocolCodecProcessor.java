@@ -0,0 +1,450 @@
+package com.chat.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 协议编解码生成器（编译期注解处理器）
+ *
+ * 为 @GenerateCodecs 标注的包中每个协议类生成一个流式 TypeAdapter，并汇总成一个 TypeAdapterFactory：
+ * - 写：按字段声明顺序调用 getter 直接写 JsonWriter，null 字段不输出（与 Gson 默认行为一致）
+ * - 读：按字段名 switch 后调用 setter，未知字段跳过；基本类型字段遇到 null 保持默认值
+ * - String / boolean / int / long 及其包装类型直接读写，其他类型（如 List）委托给 Gson 对应的 TypeAdapter
+ *
+ * 不满足条件的类（没有公开无参构造、有父类、字段缺少公开 getter/setter 等）不生成，运行时回退到反射绑定。
+ * 没有 setter 的 final 字段（如固定的 type）只写不读。
+ */
+// 生成的代码带有 @Generated，一并声明处理（无需任何处理），避免编译器提示没有处理器认领该注解
+@SupportedAnnotationTypes({"com.chat.codegen.GenerateCodecs", "javax.annotation.processing.Generated"})
+public class ProtocolCodecProcessor extends AbstractProcessor {
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GenerateCodecs.class)) {
+            if (element.getKind() != ElementKind.PACKAGE) {
+                continue;
+            }
+            PackageElement pkg = (PackageElement) element;
+            String factoryName = pkg.getAnnotation(GenerateCodecs.class).value();
+
+            List<Codec> codecs = new ArrayList<>();
+            for (TypeElement type : ElementFilter.typesIn(pkg.getEnclosedElements())) {
+                collect(type, factoryName, codecs);
+            }
+            try {
+                writeFactory(pkg.getQualifiedName().toString(), factoryName, codecs);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "生成 " + factoryName + " 失败: " + e.getMessage(), pkg);
+            }
+        }
+        return true;
+    }
+
+    // ===================== 收集协议类 =====================
+
+    private void collect(TypeElement type, String factoryName, List<Codec> codecs) {
+        if (type.getSimpleName().contentEquals(factoryName)) {
+            return;
+        }
+        Codec codec = toCodec(type);
+        if (codec != null) {
+            codecs.add(codec);
+        }
+        // 嵌套的条目类（如 ChatHistoryResponse.HistoryMessageItem）
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            collect(nested, factoryName, codecs);
+        }
+    }
+
+    private Codec toCodec(TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS
+                || !type.getModifiers().contains(Modifier.PUBLIC)
+                || type.getModifiers().contains(Modifier.ABSTRACT)
+                || (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC))
+                || !type.getTypeParameters().isEmpty()) {
+            return null;
+        }
+
+        List<VariableElement> fields = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (!modifiers.contains(Modifier.STATIC) && !modifiers.contains(Modifier.TRANSIENT)) {
+                fields.add(field);
+            }
+        }
+        if (fields.isEmpty()) {
+            // 常量类（MessageType 等）
+            return null;
+        }
+
+        TypeMirror superclass = type.getSuperclass();
+        if (!"java.lang.Object".equals(superclass.toString())) {
+            return skip(type, "存在父类");
+        }
+        if (!hasPublicNoArgConstructor(type)) {
+            return skip(type, "没有公开的无参构造方法");
+        }
+
+        List<ExecutableElement> methods = ElementFilter.methodsIn(type.getEnclosedElements());
+        Codec codec = new Codec(type);
+        for (VariableElement field : fields) {
+            String name = field.getSimpleName().toString();
+            TypeMirror fieldType = field.asType();
+            if (fieldType.getKind().isPrimitive() && kindOf(fieldType) == null) {
+                return skip(type, "字段 " + name + " 的基本类型不支持");
+            }
+
+            String getter = findGetter(methods, name, fieldType);
+            if (getter == null) {
+                return skip(type, "字段 " + name + " 缺少公开 getter");
+            }
+            String setter = findSetter(methods, name, fieldType);
+            if (setter == null && !field.getModifiers().contains(Modifier.FINAL)) {
+                return skip(type, "字段 " + name + " 缺少公开 setter");
+            }
+            codec.properties.add(new Property(name, fieldType, getter, setter));
+        }
+        return codec;
+    }
+
+    private Codec skip(TypeElement type, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "[CODEGEN] " + type.getQualifiedName() + " 未生成编解码器（" + reason + "），运行时使用反射", type);
+        return null;
+    }
+
+    private static boolean hasPublicNoArgConstructor(TypeElement type) {
+        for (ExecutableElement ctor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (ctor.getParameters().isEmpty() && ctor.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String findGetter(List<ExecutableElement> methods, String field, TypeMirror fieldType) {
+        String cap = Character.toUpperCase(field.charAt(0)) + field.substring(1);
+        for (ExecutableElement m : methods) {
+            String name = m.getSimpleName().toString();
+            boolean nameMatches = name.equals("get" + cap)
+                    || (fieldType.getKind() == TypeKind.BOOLEAN && name.equals("is" + cap));
+            if (nameMatches && isPublicInstance(m) && m.getParameters().isEmpty()
+                    && processingEnv.getTypeUtils().isSameType(m.getReturnType(), fieldType)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private String findSetter(List<ExecutableElement> methods, String field, TypeMirror fieldType) {
+        String name = "set" + Character.toUpperCase(field.charAt(0)) + field.substring(1);
+        for (ExecutableElement m : methods) {
+            if (m.getSimpleName().contentEquals(name) && isPublicInstance(m) && m.getParameters().size() == 1
+                    && processingEnv.getTypeUtils().isSameType(m.getParameters().get(0).asType(), fieldType)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isPublicInstance(ExecutableElement m) {
+        return m.getModifiers().contains(Modifier.PUBLIC) && !m.getModifiers().contains(Modifier.STATIC);
+    }
+
+    /**
+     * 直接读写的类型，返回 null 表示委托给 Gson
+     */
+    private static Kind kindOf(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN: return Kind.BOOLEAN;
+            case INT: return Kind.INT;
+            case LONG: return Kind.LONG;
+            case DECLARED:
+                switch (type.toString()) {
+                    case "java.lang.String": return Kind.STRING;
+                    case "java.lang.Boolean": return Kind.BOXED_BOOLEAN;
+                    case "java.lang.Integer": return Kind.BOXED_INT;
+                    case "java.lang.Long": return Kind.BOXED_LONG;
+                    default: return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    // ===================== 生成源码 =====================
+
+    private void writeFactory(String pkg, String factoryName, List<Codec> codecs) throws IOException {
+        StringBuilder src = new StringBuilder();
+        src.append("package ").append(pkg).append(";\n\n");
+        src.append("import com.google.gson.Gson;\n");
+        src.append("import com.google.gson.JsonSyntaxException;\n");
+        src.append("import com.google.gson.TypeAdapter;\n");
+        src.append("import com.google.gson.TypeAdapterFactory;\n");
+        src.append("import com.google.gson.reflect.TypeToken;\n");
+        src.append("import com.google.gson.stream.JsonReader;\n");
+        src.append("import com.google.gson.stream.JsonToken;\n");
+        src.append("import com.google.gson.stream.JsonWriter;\n\n");
+        src.append("import java.io.IOException;\n\n");
+        src.append("/**\n * 由 ").append(ProtocolCodecProcessor.class.getName())
+                .append(" 生成，请勿手工修改\n */\n");
+        src.append("@javax.annotation.processing.Generated(\"").append(ProtocolCodecProcessor.class.getName())
+                .append("\")\n");
+        src.append("public final class ").append(factoryName).append(" implements TypeAdapterFactory {\n\n");
+
+        // create
+        src.append("    @Override\n");
+        src.append("    @SuppressWarnings(\"unchecked\")\n");
+        src.append("    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {\n");
+        src.append("        Class<? super T> raw = typeToken.getRawType();\n");
+        for (Codec codec : codecs) {
+            src.append("        if (raw == ").append(codec.typeName()).append(".class) {\n");
+            src.append("            return (TypeAdapter<T>) new ").append(codec.adapterName()).append("(gson);\n");
+            src.append("        }\n");
+        }
+        src.append("        return null;\n");
+        src.append("    }\n");
+
+        for (Codec codec : codecs) {
+            writeAdapter(src, codec);
+        }
+        writeHelpers(src);
+        src.append("}\n");
+
+        try (Writer out = processingEnv.getFiler().createSourceFile(pkg + "." + factoryName).openWriter()) {
+            out.write(src.toString());
+        }
+    }
+
+    private void writeAdapter(StringBuilder src, Codec codec) {
+        String type = codec.typeName();
+        String adapter = codec.adapterName();
+
+        src.append("\n    private static final class ").append(adapter)
+                .append(" extends TypeAdapter<").append(type).append("> {\n");
+        for (Property p : codec.properties) {
+            if (p.kind == null) {
+                src.append("        private final TypeAdapter<").append(p.type).append("> ")
+                        .append(p.adapterField()).append(";\n");
+            }
+        }
+        src.append("\n        ").append(adapter).append("(Gson gson) {\n");
+        for (Property p : codec.properties) {
+            if (p.kind == null) {
+                src.append("            this.").append(p.adapterField()).append(" = gson.getAdapter(new TypeToken<")
+                        .append(p.type).append(">() {});\n");
+            }
+        }
+        src.append("        }\n");
+
+        // write
+        src.append("\n        @Override\n");
+        src.append("        public void write(JsonWriter out, ").append(type).append(" value) throws IOException {\n");
+        src.append("            if (value == null) {\n");
+        src.append("                out.nullValue();\n");
+        src.append("                return;\n");
+        src.append("            }\n");
+        src.append("            out.beginObject();\n");
+        for (Property p : codec.properties) {
+            src.append("            out.name(\"").append(p.name).append("\");\n");
+            String get = "value." + p.getter + "()";
+            if (p.kind == null) {
+                src.append("            ").append(p.adapterField()).append(".write(out, ").append(get).append(");\n");
+            } else {
+                src.append("            out.value(").append(get).append(");\n");
+            }
+        }
+        src.append("            out.endObject();\n");
+        src.append("        }\n");
+
+        // read
+        src.append("\n        @Override\n");
+        src.append("        public ").append(type).append(" read(JsonReader in) throws IOException {\n");
+        src.append("            if (in.peek() == JsonToken.NULL) {\n");
+        src.append("                in.nextNull();\n");
+        src.append("                return null;\n");
+        src.append("            }\n");
+        src.append("            ").append(type).append(" value = new ").append(type).append("();\n");
+        src.append("            in.beginObject();\n");
+        src.append("            while (in.hasNext()) {\n");
+        src.append("                switch (in.nextName()) {\n");
+        for (Property p : codec.properties) {
+            if (p.setter == null) {
+                continue;
+            }
+            src.append("                    case \"").append(p.name).append("\" -> ");
+            String set = "value." + p.setter + "(";
+            if (p.kind == null) {
+                src.append(set).append(p.adapterField()).append(".read(in));\n");
+            } else if (p.kind.primitive) {
+                src.append("{\n");
+                src.append("                        if (!skipNull(in)) ").append(set).append(p.kind.reader).append("(in));\n");
+                src.append("                    }\n");
+            } else {
+                src.append(set).append(p.kind.reader).append("(in));\n");
+            }
+        }
+        src.append("                    default -> in.skipValue();\n");
+        src.append("                }\n");
+        src.append("            }\n");
+        src.append("            in.endObject();\n");
+        src.append("            return value;\n");
+        src.append("        }\n");
+        src.append("    }\n");
+    }
+
+    /**
+     * 读取辅助方法：与 Gson 内置 TypeAdapters 的宽松规则保持一致（数字可带引号、字符串字段可接收数字/布尔）
+     */
+    private static void writeHelpers(StringBuilder src) {
+        src.append("""
+
+                    private static boolean skipNull(JsonReader in) throws IOException {
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                            return true;
+                        }
+                        return false;
+                    }
+
+                    private static String readString(JsonReader in) throws IOException {
+                        JsonToken token = in.peek();
+                        if (token == JsonToken.NULL) {
+                            in.nextNull();
+                            return null;
+                        }
+                        if (token == JsonToken.BOOLEAN) {
+                            return Boolean.toString(in.nextBoolean());
+                        }
+                        return in.nextString();
+                    }
+
+                    private static boolean readBoolean(JsonReader in) throws IOException {
+                        if (in.peek() == JsonToken.STRING) {
+                            return Boolean.parseBoolean(in.nextString());
+                        }
+                        return in.nextBoolean();
+                    }
+
+                    private static Boolean readBoxedBoolean(JsonReader in) throws IOException {
+                        return skipNull(in) ? null : readBoolean(in);
+                    }
+
+                    private static int readInt(JsonReader in) throws IOException {
+                        try {
+                            return in.nextInt();
+                        } catch (NumberFormatException e) {
+                            throw new JsonSyntaxException(e);
+                        }
+                    }
+
+                    private static Integer readBoxedInt(JsonReader in) throws IOException {
+                        return skipNull(in) ? null : readInt(in);
+                    }
+
+                    private static long readLong(JsonReader in) throws IOException {
+                        try {
+                            return in.nextLong();
+                        } catch (NumberFormatException e) {
+                            throw new JsonSyntaxException(e);
+                        }
+                    }
+
+                    private static Long readBoxedLong(JsonReader in) throws IOException {
+                        return skipNull(in) ? null : readLong(in);
+                    }
+                """);
+    }
+
+    // ===================== 模型 =====================
+
+    private enum Kind {
+        STRING("readString", false),
+        BOOLEAN("readBoolean", true),
+        BOXED_BOOLEAN("readBoxedBoolean", false),
+        INT("readInt", true),
+        BOXED_INT("readBoxedInt", false),
+        LONG("readLong", true),
+        BOXED_LONG("readBoxedLong", false);
+
+        final String reader;
+        final boolean primitive;
+
+        Kind(String reader, boolean primitive) {
+            this.reader = reader;
+            this.primitive = primitive;
+        }
+    }
+
+    private static final class Codec {
+        final TypeElement type;
+        final List<Property> properties = new ArrayList<>();
+
+        Codec(TypeElement type) {
+            this.type = type;
+        }
+
+        String typeName() {
+            return type.getQualifiedName().toString();
+        }
+
+        /**
+         * ChatHistoryResponse.HistoryMessageItem -> ChatHistoryResponse_HistoryMessageItemAdapter
+         */
+        String adapterName() {
+            String pkg = ((PackageElement) enclosingPackage(type)).getQualifiedName().toString();
+            return typeName().substring(pkg.length() + 1).replace('.', '_') + "Adapter";
+        }
+
+        private static Element enclosingPackage(Element e) {
+            while (e.getKind() != ElementKind.PACKAGE) {
+                e = e.getEnclosingElement();
+            }
+            return e;
+        }
+    }
+
+    private static final class Property {
+        final String name;
+        final TypeMirror type;
+        final Kind kind;
+        final String getter;
+        final String setter;  // null 表示只写不读
+
+        Property(String name, TypeMirror type, String getter, String setter) {
+            this.name = name;
+            this.type = type;
+            this.kind = kindOf(type);
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        String adapterField() {
+            return name + "Adapter";
+        }
+    }
+}
@@ -66,25 +66,14 @@ public class AuthService {
             return null;
         }
 
-        String sql = "SELECT ua.username, up.avatar_url " +
-                "FROM user_auth ua " +
-                "LEFT JOIN user_profile up ON ua.uid = up.user_id " +
-                "WHERE ua.uid = ?";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, uid);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    String username = rs.getString("username");
-                    String avatarUrl = rs.getString("avatar_url");
-
-                    // 使用Map返回数据
-                    Map<String, String> userInfo = new HashMap<>();
-                    userInfo.put("username", username);
-                    userInfo.put("avatarUrl", avatarUrl);
-                    return userInfo;
-                }
+        try {
+            UserProfileCache.Profile profile = UserProfileCache.get(uid);
+            if (profile != null) {
+                // 使用Map返回数据
+                Map<String, String> userInfo = new HashMap<>();
+                userInfo.put("username", profile.username());
+                userInfo.put("avatarUrl", profile.avatarUrl());
+                return userInfo;
             }
         } catch (SQLException e) {
             System.err.println("[GET_USER_INFO] SQL error: " + e.getMessage());
@@ -2,12 +2,15 @@ package com.chat.core;
 
 import com.chat.protocol.ChatGroupSend;
 import com.chat.protocol.ChatHistoryResponse;
+import com.chat.server.ServerConfig;
 import com.chat.utils.DatabaseManager;
+import com.chat.utils.MessageIdGenerator;
 
 import java.sql.*;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * 聊天服务 - 处理聊天消息相关数据操作
@@ -24,39 +27,37 @@ public class ChatService {
      * 保存群聊消息到数据库（基于 ChatGroupSend 对象） - 这个方法需要添加
      */
     public Long saveGroupMessage(ChatGroupSend chatRequest) {
-        String sql = "INSERT INTO message (sender_id, group_id, content, content_type, " +
+        String sql = "INSERT INTO message (id, sender_id, group_id, content, content_type, " +
                 "file_url, file_size, file_name, timestamp, is_read) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)";
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
 
+        // 消息 ID 由 MessageIdGenerator 分配，不使用 AUTO_INCREMENT
+        long messageId = MessageIdGenerator.nextId();
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setLong(1, chatRequest.getFromUserId());
-            stmt.setLong(2, chatRequest.getGroupId());
-            stmt.setString(3, chatRequest.getContent());
-            stmt.setString(4, chatRequest.getContentType() != null ? chatRequest.getContentType() : "text");
-            stmt.setString(5, chatRequest.getFileUrl());
+            stmt.setLong(1, messageId);
+            stmt.setLong(2, chatRequest.getFromUserId());
+            stmt.setLong(3, chatRequest.getGroupId());
+            stmt.setString(4, chatRequest.getContent());
+            stmt.setString(5, chatRequest.getContentType() != null ? chatRequest.getContentType() : "text");
+            stmt.setString(6, chatRequest.getFileUrl());
 
             if (chatRequest.getFileSize() != null) {
-                stmt.setLong(6, chatRequest.getFileSize());
+                stmt.setLong(7, chatRequest.getFileSize());
             } else {
-                stmt.setNull(6, java.sql.Types.BIGINT);
+                stmt.setNull(7, java.sql.Types.BIGINT);
             }
 
-            stmt.setString(7, chatRequest.getFileName());
-            stmt.setTimestamp(8, new Timestamp(chatRequest.getTimestamp()));
+            stmt.setString(8, chatRequest.getFileName());
+            stmt.setTimestamp(9, new Timestamp(chatRequest.getTimestamp()));
 
             int affected = stmt.executeUpdate();
             System.out.println("[SAVE_GROUP_MSG] 保存群聊消息，影响行数: " + affected);
 
             if (affected > 0) {
-                try (ResultSet rs = stmt.getGeneratedKeys()) {
-                    if (rs.next()) {
-                        Long messageId = rs.getLong(1);
-                        System.out.println("[SAVE_GROUP_MSG] 消息保存成功，ID: " + messageId);
-                        return messageId;
-                    }
-                }
+                System.out.println("[SAVE_GROUP_MSG] 消息保存成功，ID: " + messageId);
+                return messageId;
             }
         } catch (SQLException e) {
             System.err.println("[SAVE_GROUP_MSG] SQL error: " + e.getMessage());
@@ -67,6 +68,21 @@ public class ChatService {
         return null;
     }
 
+    /**
+     * 异步保存群聊消息：先写入 MessageJournal（持久化后回调 onAccepted），再由 MessageWriter 批量入库，
+     * 入库后回调消息 ID（失败为 null）；messageId 由调用方用 MessageIdGenerator 预先分配
+     */
+    public void saveGroupMessageAsync(long messageId, ChatGroupSend chatRequest, Consumer<Boolean> onAccepted,
+                                      Consumer<Long> callback) throws InterruptedException {
+        MessageWriter.PendingMessage message = new MessageWriter.PendingMessage(messageId,
+                chatRequest.getFromUserId(), null, chatRequest.getGroupId(), chatRequest.getContent(),
+                chatRequest.getContentType(), chatRequest.getFileUrl(), chatRequest.getFileSize(),
+                chatRequest.getFileName(), chatRequest.getTimestamp(), onAccepted,
+                forgetIfNotStored(groupConversationKey(chatRequest.getGroupId()), messageId, callback));
+        RecentMessageCache.record(message);
+        MessageJournal.submit(message);
+    }
+
     /**
      * 保存群聊消息 - 简化版（客户端使用）
      */
@@ -89,36 +105,185 @@ public class ChatService {
         return result != null;
     }
 
+    // message 表的列长度：content TEXT（字节），其余 varchar（字符）
+    private static final int MAX_CONTENT_BYTES = 65535;
+    private static final int MAX_CONTENT_TYPE_CHARS = 20;
+    private static final int MAX_FILE_FIELD_CHARS = 255;
+
+    /**
+     * 检查消息字段能否写入 message 表，返回不合法的原因，合法时返回 null
+     * 在写入日志、确认发送方之前调用：写不进数据库的消息不能先确认再丢弃
+     */
+    public static String validateMessage(String content, String contentType, String fileUrl, Long fileSize,
+                                         String fileName) {
+        if (content != null && utf8Length(content) > MAX_CONTENT_BYTES) {
+            return "content 超过 " + MAX_CONTENT_BYTES + " 字节";
+        }
+        if (contentType != null && (contentType.isBlank() || contentType.length() > MAX_CONTENT_TYPE_CHARS)) {
+            return "contentType 为空或超过 " + MAX_CONTENT_TYPE_CHARS + " 个字符";
+        }
+        if (fileUrl != null && fileUrl.length() > MAX_FILE_FIELD_CHARS) {
+            return "fileUrl 超过 " + MAX_FILE_FIELD_CHARS + " 个字符";
+        }
+        if (fileName != null && fileName.length() > MAX_FILE_FIELD_CHARS) {
+            return "fileName 超过 " + MAX_FILE_FIELD_CHARS + " 个字符";
+        }
+        if (fileSize != null && fileSize < 0) {
+            return "fileSize 不能为负数";
+        }
+        return null;
+    }
+
+    private static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 私聊会话键：与 message.conversation_key（生成列）的计算方式一致
+     */
+    public static String privateConversationKey(long userA, long userB) {
+        return "p:" + Math.min(userA, userB) + ":" + Math.max(userA, userB);
+    }
+
+    /**
+     * 群聊会话键：与 message.conversation_key（生成列）的计算方式一致
+     */
+    public static String groupConversationKey(long groupId) {
+        return "g:" + groupId;
+    }
+
     /**
      * 获取私聊历史记录 - 修复版
+     * 先查最近消息缓存，缓存凑不满一页时查数据库
      */
     public List<ChatHistoryResponse.HistoryMessageItem> getPrivateChatHistory(
-            Long currentUid, Long targetUserId, Long beforeTimestamp, Integer limit) throws SQLException {
+            Long currentUid, Long targetUserId, Long beforeId, Long beforeTimestamp, Integer limit)
+            throws SQLException {
+        String key = privateConversationKey(currentUid, targetUserId);
+        return getCachedHistory(key, beforeId, beforeTimestamp, limit,
+                n -> queryPrivateChatHistory(currentUid, targetUserId, beforeId, beforeTimestamp, n));
+    }
+
+    /**
+     * 获取群聊历史记录 - 修复版
+     * 先查最近消息缓存，缓存凑不满一页时查数据库
+     */
+    public List<ChatHistoryResponse.HistoryMessageItem> getGroupChatHistory(
+            Long groupId, Long beforeId, Long beforeTimestamp, Integer limit) throws SQLException {
+        String key = groupConversationKey(groupId);
+        return getCachedHistory(key, beforeId, beforeTimestamp, limit,
+                n -> queryGroupChatHistory(groupId, beforeId, beforeTimestamp, n));
+    }
+
+    /**
+     * 历史查询（参数为条数）
+     */
+    private interface HistoryQuery {
+        List<ChatHistoryResponse.HistoryMessageItem> query(int limit) throws SQLException;
+    }
+
+    /**
+     * 按 ID 分页的请求先从 RecentMessageCache 取；第一页未命中时按缓存容量查询数据库并回填缓存
+     */
+    private List<ChatHistoryResponse.HistoryMessageItem> getCachedHistory(
+            String key, Long beforeId, Long beforeTimestamp, Integer limit, HistoryQuery query) throws SQLException {
+        int pageSize = limit != null ? limit : 50;
+        if (beforeTimestamp != null && beforeId == null) {
+            return query.query(pageSize);
+        }
+        List<ChatHistoryResponse.HistoryMessageItem> cached = RecentMessageCache.page(key, beforeId, pageSize);
+        if (cached != null) {
+            return cached;
+        }
+        if (beforeId != null) {
+            return query.query(pageSize);
+        }
+        int fetch = Math.max(pageSize, ServerConfig.HISTORY_RECENT_SIZE);
+        List<ChatHistoryResponse.HistoryMessageItem> latest = query.query(fetch);
+        RecentMessageCache.fill(key, latest, fetch);
+        return latest.size() > pageSize ? new ArrayList<>(latest.subList(0, pageSize)) : latest;
+    }
+
+    /**
+     * 按已读游标填写 isRead（返回副本，缓存中的消息对象是共享的）
+     * 私聊：消息 ID 不超过接收方的游标即已读（对方的游标就是自己所发消息的已读回执）
+     * 群聊：自己发的或不超过自己游标的为已读
+     */
+    private List<ChatHistoryResponse.HistoryMessageItem> withReadState(
+            List<ChatHistoryResponse.HistoryMessageItem> messages, String key, long currentUid, Long peerId) {
+        if (messages == null || messages.isEmpty()) {
+            return messages;
+        }
+        long myCursor = ReadCursorStore.getLastReadId(currentUid, key);
+        long peerCursor = peerId != null ? ReadCursorStore.getLastReadId(peerId, key) : 0;
+        List<ChatHistoryResponse.HistoryMessageItem> result = new ArrayList<>(messages.size());
+        for (ChatHistoryResponse.HistoryMessageItem m : messages) {
+            boolean mine = m.getSenderId() != null && m.getSenderId() == currentUid;
+            boolean read = peerId != null ? m.getId() <= (mine ? peerCursor : myCursor) : mine || m.getId() <= myCursor;
+
+            ChatHistoryResponse.HistoryMessageItem copy = new ChatHistoryResponse.HistoryMessageItem();
+            copy.setId(m.getId());
+            copy.setSenderId(m.getSenderId());
+            copy.setReceiverId(m.getReceiverId());
+            copy.setGroupId(m.getGroupId());
+            copy.setContent(m.getContent());
+            copy.setContentType(m.getContentType());
+            copy.setFileUrl(m.getFileUrl());
+            copy.setFileSize(m.getFileSize());
+            copy.setFileName(m.getFileName());
+            copy.setTimestamp(m.getTimestamp());
+            copy.setIsRead(read ? 1 : 0);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * 从数据库查询私聊历史记录
+     * 按 (conversation_key, id) 索引做键集分页：beforeId 为上一页最早一条消息的 ID，翻到多深每页代价都相同
+     */
+    private List<ChatHistoryResponse.HistoryMessageItem> queryPrivateChatHistory(
+            Long currentUid, Long targetUserId, Long beforeId, Long beforeTimestamp, Integer limit)
+            throws SQLException {
 
         List<ChatHistoryResponse.HistoryMessageItem> messages = new ArrayList<>();
 
         String sql = "SELECT id, sender_id, receiver_id, content, content_type, " +
-                "file_url, file_size, file_name, timestamp, is_read " +
+                "file_url, file_size, file_name, timestamp " +
                 "FROM message " +
-                "WHERE ((sender_id = ? AND receiver_id = ?) OR (sender_id = ? AND receiver_id = ?)) " +
-                "AND group_id IS NULL ";
+                "WHERE conversation_key = ? ";
 
-        if (beforeTimestamp != null) {
+        if (beforeId != null) {
+            sql += "AND id < ? ";
+        } else if (beforeTimestamp != null) {
             sql += "AND timestamp < ? ";
         }
 
-        sql += "ORDER BY timestamp DESC LIMIT ?";
+        sql += "ORDER BY id DESC LIMIT ?";
 
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             int paramIndex = 1;
-            stmt.setLong(paramIndex++, currentUid);
-            stmt.setLong(paramIndex++, targetUserId);
-            stmt.setLong(paramIndex++, targetUserId);
-            stmt.setLong(paramIndex++, currentUid);
+            stmt.setString(paramIndex++, privateConversationKey(currentUid, targetUserId));
 
-            if (beforeTimestamp != null) {
+            if (beforeId != null) {
+                stmt.setLong(paramIndex++, beforeId);
+            } else if (beforeTimestamp != null) {
                 stmt.setTimestamp(paramIndex++, new Timestamp(beforeTimestamp));
             }
 
@@ -148,8 +313,6 @@ public class ChatService {
                         message.setTimestamp(getCurrentDatetimeString());
                     }
 
-                    message.setIsRead(rs.getInt("is_read"));
-
                     messages.add(message);
                 }
             }
@@ -159,31 +322,36 @@ public class ChatService {
     }
 
     /**
-     * 获取群聊历史记录 - 修复版
+     * 从数据库查询群聊历史记录
+     * 按 (conversation_key, id) 索引做键集分页，同私聊
      */
-    public List<ChatHistoryResponse.HistoryMessageItem> getGroupChatHistory(
-            Long groupId, Long beforeTimestamp, Integer limit) throws SQLException {
+    private List<ChatHistoryResponse.HistoryMessageItem> queryGroupChatHistory(
+            Long groupId, Long beforeId, Long beforeTimestamp, Integer limit) throws SQLException {
 
         List<ChatHistoryResponse.HistoryMessageItem> messages = new ArrayList<>();
 
         String sql = "SELECT id, sender_id, group_id, content, content_type, " +
-                "file_url, file_size, file_name, timestamp, is_read " +
+                "file_url, file_size, file_name, timestamp " +
                 "FROM message " +
-                "WHERE group_id = ? ";
+                "WHERE conversation_key = ? ";
 
-        if (beforeTimestamp != null) {
+        if (beforeId != null) {
+            sql += "AND id < ? ";
+        } else if (beforeTimestamp != null) {
             sql += "AND timestamp < ? ";
         }
 
-        sql += "ORDER BY timestamp DESC LIMIT ?";
+        sql += "ORDER BY id DESC LIMIT ?";
 
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
             int paramIndex = 1;
-            stmt.setLong(paramIndex++, groupId);
+            stmt.setString(paramIndex++, groupConversationKey(groupId));
 
-            if (beforeTimestamp != null) {
+            if (beforeId != null) {
+                stmt.setLong(paramIndex++, beforeId);
+            } else if (beforeTimestamp != null) {
                 stmt.setTimestamp(paramIndex++, new Timestamp(beforeTimestamp));
             }
 
@@ -213,8 +381,6 @@ public class ChatService {
                         message.setTimestamp(getCurrentDatetimeString());
                     }
 
-                    message.setIsRead(rs.getInt("is_read"));
-
                     messages.add(message);
                 }
             }
@@ -229,18 +395,20 @@ public class ChatService {
      * 专门用于客户端历史消息请求的方法（避免重复处理）
      */
     public List<ChatHistoryResponse.HistoryMessageItem> getChatHistoryForClient(
-            String chatType, Long targetId, Long currentUid, Long beforeTimestamp, Integer limit)
+            String chatType, Long targetId, Long currentUid, Long beforeId, Long beforeTimestamp, Integer limit)
             throws Exception {
 
         if ("private".equals(chatType)) {
-            return getPrivateChatHistory(currentUid, targetId, beforeTimestamp, limit);
+            return withReadState(getPrivateChatHistory(currentUid, targetId, beforeId, beforeTimestamp, limit),
+                    privateConversationKey(currentUid, targetId), currentUid, targetId);
 
         } else if ("group".equals(chatType)) {
             GroupService groupService = new GroupService();
             if (!groupService.isUserInGroup(currentUid, targetId)) {
                 throw new SecurityException("用户不在该群组中");
             }
-            return getGroupChatHistory(targetId, beforeTimestamp, limit);
+            return withReadState(getGroupChatHistory(targetId, beforeId, beforeTimestamp, limit),
+                    groupConversationKey(targetId), currentUid, null);
 
         } else {
             throw new IllegalArgumentException("无效的聊天类型: " + chatType);
@@ -253,10 +421,10 @@ public class ChatService {
      * 安全的获取私聊历史记录（带参数校验）
      */
     public List<ChatHistoryResponse.HistoryMessageItem> getPrivateChatHistorySafely(
-            Long currentUid, Long targetUserId, Long beforeTimestamp, Integer limit) {
+            Long currentUid, Long targetUserId, Long beforeId, Long beforeTimestamp, Integer limit) {
 
         try {
-            return getPrivateChatHistory(currentUid, targetUserId, beforeTimestamp, limit);
+            return getPrivateChatHistory(currentUid, targetUserId, beforeId, beforeTimestamp, limit);
         } catch (SQLException e) {
             System.err.println("[ERROR] 获取私聊历史记录失败: " + e.getMessage());
             e.printStackTrace();
@@ -268,10 +436,10 @@ public class ChatService {
      * 安全的获取群聊历史记录（带参数校验）
      */
     public List<ChatHistoryResponse.HistoryMessageItem> getGroupChatHistorySafely(
-            Long groupId, Long beforeTimestamp, Integer limit) {
+            Long groupId, Long beforeId, Long beforeTimestamp, Integer limit) {
 
         try {
-            return getGroupChatHistory(groupId, beforeTimestamp, limit);
+            return getGroupChatHistory(groupId, beforeId, beforeTimestamp, limit);
         } catch (SQLException e) {
             System.err.println("[ERROR] 获取群聊历史记录失败: " + e.getMessage());
             e.printStackTrace();
@@ -289,42 +457,43 @@ public class ChatService {
                                       String contentType, String fileUrl, Long fileSize,
                                       String fileName, Long timestamp) {
 
-        String sql = "INSERT INTO message (sender_id, receiver_id, content, content_type, " +
+        String sql = "INSERT INTO message (id, sender_id, receiver_id, content, content_type, " +
                 "file_url, file_size, file_name, timestamp, is_read) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, 0)";
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
 
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setLong(1, senderId);
-            stmt.setLong(2, receiverId);
-            stmt.setString(3, content);
-            stmt.setString(4, contentType != null ? contentType : "text");
+            stmt.setLong(1, MessageIdGenerator.nextId());
+            stmt.setLong(2, senderId);
+            stmt.setLong(3, receiverId);
+            stmt.setString(4, content);
+            stmt.setString(5, contentType != null ? contentType : "text");
 
             // 处理可能为null的文件相关字段
             if (fileUrl != null && !fileUrl.isEmpty()) {
-                stmt.setString(5, fileUrl);
+                stmt.setString(6, fileUrl);
             } else {
-                stmt.setNull(5, Types.VARCHAR);
+                stmt.setNull(6, Types.VARCHAR);
             }
 
             if (fileSize != null && fileSize > 0) {
-                stmt.setLong(6, fileSize);
+                stmt.setLong(7, fileSize);
             } else {
-                stmt.setNull(6, Types.BIGINT);
+                stmt.setNull(7, Types.BIGINT);
             }
 
             if (fileName != null && !fileName.isEmpty()) {
-                stmt.setString(7, fileName);
+                stmt.setString(8, fileName);
             } else {
-                stmt.setNull(7, Types.VARCHAR);
+                stmt.setNull(8, Types.VARCHAR);
             }
 
             // 处理时间戳
             if (timestamp != null && timestamp > 0) {
-                stmt.setTimestamp(8, new Timestamp(timestamp));
+                stmt.setTimestamp(9, new Timestamp(timestamp));
             } else {
-                stmt.setTimestamp(8, new Timestamp(System.currentTimeMillis()));
+                stmt.setTimestamp(9, new Timestamp(System.currentTimeMillis()));
             }
 
             int affected = stmt.executeUpdate();
@@ -341,6 +510,36 @@ public class ChatService {
         }
     }
 
+    /**
+     * 异步保存私聊消息：先写入 MessageJournal（持久化后回调 onAccepted），再由 MessageWriter 批量入库，
+     * 入库后回调消息 ID（失败为 null）；messageId 由调用方用 MessageIdGenerator 预先分配
+     */
+    public void savePrivateMessageAsync(long messageId, Long senderId, Long receiverId, String content,
+                                        String contentType, String fileUrl, Long fileSize,
+                                        String fileName, Long timestamp, Consumer<Boolean> onAccepted,
+                                        Consumer<Long> callback) throws InterruptedException {
+        MessageWriter.PendingMessage message = new MessageWriter.PendingMessage(messageId, senderId, receiverId, null,
+                content, contentType, fileUrl, fileSize, fileName, timestamp, onAccepted,
+                forgetIfNotStored(privateConversationKey(senderId, receiverId), messageId, callback));
+        RecentMessageCache.record(message);
+        UnreadCounterStore.increment(receiverId, privateConversationKey(senderId, receiverId));
+        MessageJournal.submit(message);
+    }
+
+    /**
+     * 包装入库回调：入库失败（storedId 为 null）时把发送时记入 RecentMessageCache 的消息移除
+     */
+    private static Consumer<Long> forgetIfNotStored(String conversationKey, long messageId, Consumer<Long> callback) {
+        return storedId -> {
+            if (storedId == null) {
+                RecentMessageCache.remove(conversationKey, messageId);
+            }
+            if (callback != null) {
+                callback.accept(storedId);
+            }
+        };
+    }
+
     // ===================== 以下是原有方法保持不变 =====================
 
     /**
@@ -370,7 +569,7 @@ public class ChatService {
      * 处理历史消息请求的完整方法
      */
     public ChatHistoryResponse processHistoryRequest(String chatType, Long targetId,
-                                                     Long currentUid, Long beforeTimestamp,
+                                                     Long currentUid, Long beforeId, Long beforeTimestamp,
                                                      Integer limit) {
 
         ChatHistoryResponse response = new ChatHistoryResponse();
@@ -380,7 +579,9 @@ public class ChatService {
             List<ChatHistoryResponse.HistoryMessageItem> messages;
 
             if ("private".equals(chatType)) {
-                messages = getPrivateChatHistorySafely(currentUid, targetId, beforeTimestamp, limit);
+                messages = withReadState(
+                        getPrivateChatHistorySafely(currentUid, targetId, beforeId, beforeTimestamp, limit),
+                        privateConversationKey(currentUid, targetId), currentUid, targetId);
             } else if ("group".equals(chatType)) {
                 GroupService groupService = new GroupService();
                 if (!groupService.isUserInGroup(currentUid, targetId)) {
@@ -388,7 +589,8 @@ public class ChatService {
                     response.setMessage("用户不在该群组中，无法查看历史消息");
                     return response;
                 }
-                messages = getGroupChatHistorySafely(targetId, beforeTimestamp, limit);
+                messages = withReadState(getGroupChatHistorySafely(targetId, beforeId, beforeTimestamp, limit),
+                        groupConversationKey(targetId), currentUid, null);
             } else {
                 response.setSuccess(false);
                 response.setMessage("无效的聊天类型");
@@ -408,62 +610,119 @@ public class ChatService {
     }
 
     /**
-     * 获取群组成员列表
+     * 数据库中最大的消息 ID（启动时交给 MessageIdGenerator，保证新 ID 不与已有 ID 重复）
      */
-    public List<Long> getGroupMembers(Long groupId) {
-        List<Long> memberIds = new ArrayList<>();
-
-        String sql = "SELECT user_id FROM group_member WHERE group_id = ?";
-
+    public long getMaxMessageId() throws SQLException {
         try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, groupId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    memberIds.add(rs.getLong("user_id"));
-                }
-            }
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(id) FROM message")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * 获取群组成员列表（来自 GroupMembershipCache，按 ID 升序）
+     */
+    public List<Long> getGroupMembers(Long groupId) {
+        try {
+            return GroupMembershipCache.getMembers(groupId);
         } catch (SQLException e) {
             System.err.println("[GET_GROUP_MEMBERS] SQL error: " + e.getMessage());
             e.printStackTrace();
+            return new ArrayList<>();
         }
-
-        return memberIds;
     }
 
     /**
-     * 获取未读消息数量
+     * 获取未读私聊消息数量（各私聊会话未读计数之和，见 UnreadCounterStore）
      */
     public int getUnreadMessageCount(Long userId) {
-        String sql = "SELECT COUNT(*) as unread_count FROM message " +
-                "WHERE receiver_id = ? AND is_read = 0 AND group_id IS NULL";
+        return UnreadCounterStore.totalPrivate(userId);
+    }
+
+    /**
+     * 会话中的未读数（内存计数）
+     */
+    public int getUnreadCount(long userId, String conversationKey) {
+        return UnreadCounterStore.get(userId, conversationKey);
+    }
+
+    /**
+     * 已读游标前进后重新计算会话未读数：ID 大于游标、不是用户自己发的消息
+     * 最近消息缓存覆盖游标之后的全部消息时在内存中数，否则走 (conversation_key, id) 索引只扫描未读部分
+     */
+    private void refreshUnreadCount(long userId, String conversationKey) {
+        long cursor = ReadCursorStore.getLastReadId(userId, conversationKey);
+        int count = RecentMessageCache.countAfter(conversationKey, cursor, userId);
+        if (count < 0) {
+            String sql = "SELECT COUNT(*) FROM message WHERE conversation_key = ? AND id > ? AND sender_id <> ?";
+            try (Connection conn = DatabaseManager.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, conversationKey);
+                stmt.setLong(2, cursor);
+                stmt.setLong(3, userId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    count = rs.next() ? rs.getInt(1) : 0;
+                }
+            } catch (SQLException e) {
+                System.err.println("[GET_UNREAD_COUNT] SQL error: " + e.getMessage());
+                e.printStackTrace();
+                return;
+            }
+        }
+        UnreadCounterStore.set(userId, conversationKey, count);
+    }
+
+    /**
+     * 会话中最新一条消息的 ID，没有消息时为 0（含已发送、尚未入库的消息）
+     */
+    public long getLatestMessageId(String conversationKey) throws SQLException {
+        String sql = "SELECT MAX(id) FROM message WHERE conversation_key = ?";
 
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, userId);
+            stmt.setString(1, conversationKey);
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt("unread_count");
-                }
+                long stored = rs.next() ? rs.getLong(1) : 0;
+                return Math.max(stored, RecentMessageCache.latestId(conversationKey));
             }
-        } catch (SQLException e) {
-            System.err.println("[GET_UNREAD_COUNT] SQL error: " + e.getMessage());
-            e.printStackTrace();
         }
-        return 0;
     }
 
     /**
-     * 标记消息为已读
+     * 把用户在会话中的已读游标前进到 messageId（为空时前进到会话最新一条），返回前进后的游标
+     * 游标不会超过会话中已有的最新消息，避免之后的新消息被当作已读
+     */
+    public long markConversationRead(long userId, String conversationKey, Long messageId) throws SQLException {
+        long latest = getLatestMessageId(conversationKey);
+        long target = messageId != null ? Math.min(messageId, latest) : latest;
+        if (target > 0 && ReadCursorStore.advance(userId, conversationKey, target)) {
+            refreshUnreadCount(userId, conversationKey);
+        }
+        return ReadCursorStore.getLastReadId(userId, conversationKey);
+    }
+
+    /**
+     * 标记消息为已读（前进接收方在该私聊会话的游标，之前的消息一并视为已读）
      */
     public boolean markMessageAsRead(Long messageId, Long userId) {
-        String sql = "UPDATE message SET is_read = 1 WHERE id = ? AND receiver_id = ?";
+        String sql = "SELECT sender_id FROM message WHERE id = ? AND receiver_id = ?";
 
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setLong(1, messageId);
             stmt.setLong(2, userId);
-            return stmt.executeUpdate() > 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                String key = privateConversationKey(rs.getLong(1), userId);
+                if (!ReadCursorStore.advance(userId, key, messageId)) {
+                    return false;
+                }
+                refreshUnreadCount(userId, key);
+                return true;
+            }
         } catch (SQLException e) {
             System.err.println("[MARK_AS_READ] SQL error: " + e.getMessage());
             e.printStackTrace();
@@ -472,21 +731,20 @@ public class ChatService {
     }
 
     /**
-     * 标记用户所有私聊消息为已读
+     * 标记与某用户的私聊消息全部已读（游标前进到会话最新一条）
      */
     public boolean markAllPrivateMessagesAsRead(Long userId, Long targetUserId) {
-        String sql = "UPDATE message SET is_read = 1 " +
-                "WHERE receiver_id = ? AND sender_id = ? AND group_id IS NULL AND is_read = 0";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, userId);
-            stmt.setLong(2, targetUserId);
-            return stmt.executeUpdate() > 0;
+        String key = privateConversationKey(userId, targetUserId);
+        try {
+            if (!ReadCursorStore.advance(userId, key, getLatestMessageId(key))) {
+                return false;
+            }
+            refreshUnreadCount(userId, key);
+            return true;
         } catch (SQLException e) {
             System.err.println("[MARK_ALL_AS_READ] SQL error: " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,146 @@
+package com.chat.core;
+
+import com.chat.server.ServerConfig;
+import com.chat.utils.DatabaseManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 投递游标 - 每个用户一个：此 ID 及之前发给该用户的消息（跨所有会话）都已送达
+ * - 登录时 InboxService 把游标之后的消息一次同步给客户端，然后把游标前进到同步的最后一条
+ * - 在线期间消息实时推送，断开连接时游标前进到 chat.inbox.graceMillis 之前（最后这段时间的推送
+ *   可能没写出去，下次登录重发，客户端按消息 ID 去重）
+ * - 游标只前进不后退；前进先记在内存，每 chat.inbox.cursorFlushMillis 合并写入 message_delivery_cursor
+ */
+public class DeliveryCursorStore {
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS message_delivery_cursor (" +
+            "user_id BIGINT NOT NULL, " +
+            "last_delivered_id BIGINT NOT NULL, " +
+            "PRIMARY KEY (user_id))";
+    private static final String UPSERT_PREFIX = "INSERT INTO message_delivery_cursor (user_id, last_delivered_id) VALUES ";
+    private static final String UPSERT_SUFFIX =
+            " ON DUPLICATE KEY UPDATE last_delivered_id = GREATEST(last_delivered_id, VALUES(last_delivered_id))";
+
+    // 一条 INSERT 最多带的游标数（避免超过 max_allowed_packet 和占位符上限）
+    private static final int FLUSH_CHUNK = 500;
+
+    // 已前进、尚未写入数据库的游标
+    private static final Map<Long, Long> pending = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService scheduler;
+
+    public static synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_TABLE);
+        } catch (SQLException e) {
+            System.err.println("[DELIVERY_CURSOR] 创建游标表失败: " + e.getMessage());
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "delivery-cursor-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, ServerConfig.INBOX_CURSOR_FLUSH_MILLIS);
+        scheduler.scheduleWithFixedDelay(DeliveryCursorStore::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时写入并写出剩余的游标
+     */
+    public static synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        flush();
+    }
+
+    /**
+     * 用户的投递游标，从未记录过时返回 null
+     */
+    public static Long getCursor(long userId) throws SQLException {
+        Long stored = null;
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT last_delivered_id FROM message_delivery_cursor WHERE user_id = ?")) {
+            stmt.setLong(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    stored = rs.getLong(1);
+                }
+            }
+        }
+        Long unsaved = pending.get(userId);
+        if (stored == null || unsaved == null) {
+            return stored != null ? stored : unsaved;
+        }
+        return Math.max(stored, unsaved);
+    }
+
+    /**
+     * 游标前进到 messageId（数据库中更大的游标不会被覆盖）
+     */
+    public static void advance(long userId, long messageId) {
+        pending.merge(userId, messageId, Math::max);
+    }
+
+    /**
+     * 把内存中前进过的游标合并写入数据库（多行 INSERT ... ON DUPLICATE KEY UPDATE，每条最多 FLUSH_CHUNK 个）
+     */
+    public static void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Long, Long>> all = new ArrayList<>();
+        pending.forEach((userId, id) -> all.add(Map.entry(userId, id)));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            for (int from = 0; from < all.size(); from += FLUSH_CHUNK) {
+                List<Map.Entry<Long, Long>> batch = all.subList(from, Math.min(all.size(), from + FLUSH_CHUNK));
+                try {
+                    upsert(conn, batch);
+                } catch (SQLException e) {
+                    System.err.println("[DELIVERY_CURSOR] 写入 " + batch.size() + " 个游标失败，下次重试: " + e.getMessage());
+                    continue;
+                }
+                // 写入期间又前进过的游标留到下一次
+                for (Map.Entry<Long, Long> e : batch) {
+                    pending.remove(e.getKey(), e.getValue());
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("[DELIVERY_CURSOR] 写入 " + all.size() + " 个游标失败，下次重试: " + e.getMessage());
+        }
+    }
+
+    private static void upsert(Connection conn, List<Map.Entry<Long, Long>> batch) throws SQLException {
+        StringBuilder sql = new StringBuilder(UPSERT_PREFIX);
+        for (int i = 0; i < batch.size(); i++) {
+            sql.append(i == 0 ? "(?, ?)" : ",(?, ?)");
+        }
+        sql.append(UPSERT_SUFFIX);
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            for (Map.Entry<Long, Long> e : batch) {
+                stmt.setLong(p++, e.getKey());
+                stmt.setLong(p++, e.getValue());
+            }
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.chat.core;
 
 import com.chat.utils.DatabaseManager;
+import com.chat.utils.MessageIdGenerator;
 import java.sql.*;
 
 /**
@@ -14,31 +15,33 @@ public class FileService {
     public boolean saveFileInfo(String fileId, String fileName, long fileSize,
                                 String fileType, Long senderId, Long receiverId,
                                 Long groupId, String filePath) {
-        String sql = "INSERT INTO message (sender_id, receiver_id, group_id, content_type, " +
+        // 消息 ID 由 MessageIdGenerator 分配，与聊天消息一致（不能用 AUTO_INCREMENT，会与队列中已分配的 ID 冲突）
+        String sql = "INSERT INTO message (id, sender_id, receiver_id, group_id, content_type, " +
                 "file_url, file_size, file_name, timestamp) " +
-                "VALUES (?, ?, ?, ?, ?, ?, ?, NOW())";
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, NOW())";
 
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-            stmt.setLong(1, senderId);
+            stmt.setLong(1, MessageIdGenerator.nextId());
+            stmt.setLong(2, senderId);
 
             if (receiverId != null) {
-                stmt.setLong(2, receiverId);
+                stmt.setLong(3, receiverId);
             } else {
-                stmt.setNull(2, Types.BIGINT);
+                stmt.setNull(3, Types.BIGINT);
             }
 
             if (groupId != null) {
-                stmt.setLong(3, groupId);
+                stmt.setLong(4, groupId);
             } else {
-                stmt.setNull(3, Types.BIGINT);
+                stmt.setNull(4, Types.BIGINT);
             }
 
-            stmt.setString(4, "file"); // content_type设为'file'
-            stmt.setString(5, filePath); // 存储文件路径
-            stmt.setLong(6, fileSize);
-            stmt.setString(7, fileName);
+            stmt.setString(5, "file"); // content_type设为'file'
+            stmt.setString(6, filePath); // 存储文件路径
+            stmt.setLong(7, fileSize);
+            stmt.setString(8, fileName);
 
             int rows = stmt.executeUpdate();
             return rows > 0;
@@ -179,22 +182,8 @@ public class FileService {
      * 检查用户是否是群成员
      */
     private boolean isGroupMember(Long groupId, Long userId) {
-        String sql = "SELECT COUNT(*) FROM group_member WHERE group_id = ? AND user_id = ?";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setLong(1, groupId);
-            stmt.setLong(2, userId);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    int count = rs.getInt(1);
-                    System.out.println("[FILE_SERVICE] 群成员检查: groupId=" + groupId +
-                            ", userId=" + userId + ", count=" + count);
-                    return count > 0;
-                }
-            }
+        try {
+            return GroupMembershipCache.isMember(groupId, userId);
         } catch (SQLException e) {
             System.err.println("[FILE_SERVICE] 检查群成员失败: " + e.getMessage());
         }
@@ -10,6 +10,7 @@ import com.chat.utils.OnlineUserManager;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 好友服务 - 处理好友关系相关数据操作
@@ -93,22 +94,8 @@ public class FriendService {
 
             // 3. 如果同意，建立双向好友关系
             if (accept && fromUserId != null && toUserId != null) {
-                // 检查是否已存在好友关系（防止重复）
-                String checkFriendship = "SELECT id FROM friendship " +
-                        "WHERE (user_id = ? AND friend_id = ?) " +
-                        "   OR (user_id = ? AND friend_id = ?)";
-
-                boolean alreadyFriends = false;
-                try (PreparedStatement checkStmt = conn.prepareStatement(checkFriendship)) {
-                    checkStmt.setLong(1, fromUserId);
-                    checkStmt.setLong(2, toUserId);
-                    checkStmt.setLong(3, toUserId);
-                    checkStmt.setLong(4, fromUserId);
-
-                    try (ResultSet rs = checkStmt.executeQuery()) {
-                        alreadyFriends = rs.next();
-                    }
-                }
+                // 检查是否已存在好友关系（防止重复），查内存中的好友关系图
+                boolean alreadyFriends = FriendshipGraph.isFriend(fromUserId, toUserId);
 
                 if (!alreadyFriends) {
                     // 建立双向好友关系
@@ -124,6 +111,9 @@ public class FriendService {
             }
 
             conn.commit();
+            if (accept && fromUserId != null && toUserId != null) {
+                FriendshipGraph.onFriendAdded(fromUserId, toUserId);
+            }
             return true;
 
         } catch (SQLException e) {
@@ -165,16 +155,8 @@ public class FriendService {
     }
 
     public boolean isFriend(Long userId1, Long userId2) {
-        String sql = "SELECT id FROM friendship WHERE (user_id = ? AND friend_id = ?) OR (user_id = ? AND friend_id = ?)";
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, userId1);
-            stmt.setLong(2, userId2);
-            stmt.setLong(3, userId2);
-            stmt.setLong(4, userId1);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
-            }
+        try {
+            return FriendshipGraph.isFriend(userId1, userId2);
         } catch (SQLException e) {
             System.err.println("[CHECK_FRIEND] SQL error: " + e.getMessage());
             return false;
@@ -220,27 +202,23 @@ public class FriendService {
     public List<FriendListResponse.FriendItem> getFriendList(Long userId) {
         List<FriendListResponse.FriendItem> friends = new ArrayList<>();
 
-        String sql = "SELECT u.uid, u.username, p.avatar_url " +
-                "FROM user_auth u " +
-                "LEFT JOIN user_profile p ON u.uid = p.user_id " +
-                "WHERE u.uid IN (" +
-                "    SELECT friend_id FROM friendship WHERE user_id = ? " +
-                "    UNION " +
-                "    SELECT user_id FROM friendship WHERE friend_id = ?" +
-                ")";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, userId);
-            stmt.setLong(2, userId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    FriendListResponse.FriendItem friend = new FriendListResponse.FriendItem();
-                    friend.setUid(rs.getLong("uid"));
-                    friend.setUsername(rs.getString("username"));
-                    friend.setAvatarUrl(rs.getString("avatar_url"));
-                    friends.add(friend);
+        try {
+            // 好友 ID 来自内存中的好友关系图（按 ID 升序）
+            List<Long> friendIds = new ArrayList<>();
+            FriendshipGraph.getFriendBitmap(userId).forEach(friendIds::add);
+
+            // 用户名、头像从资料缓存批量取
+            Map<Long, UserProfileCache.Profile> profiles = UserProfileCache.getAll(friendIds);
+            for (Long friendId : friendIds) {
+                UserProfileCache.Profile profile = profiles.get(friendId);
+                if (profile == null) {
+                    continue;
                 }
+                FriendListResponse.FriendItem friend = new FriendListResponse.FriendItem();
+                friend.setUid(profile.uid());
+                friend.setUsername(profile.username());
+                friend.setAvatarUrl(profile.avatarUrl());
+                friends.add(friend);
             }
         } catch (SQLException e) {
             System.err.println("[GET_FRIENDS] SQL error: " + e.getMessage());
@@ -260,44 +238,24 @@ public class FriendService {
             return response;
         }
 
-        String sql = "SELECT u.uid, u.username, p.avatar_url, p.gender, p.birthday, p.tele " +
-                "FROM user_auth u " +
-                "LEFT JOIN user_profile p ON u.uid = p.user_id " +
-                "WHERE u.uid = ?";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setLong(1, friendId);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    response.setSuccess(true);
-                    response.setFriendId(rs.getLong("uid"));
-                    response.setUsername(rs.getString("username"));
-                    response.setAvatarUrl(rs.getString("avatar_url"));
-                    response.setGender(rs.getInt("gender"));
-
-                    // 处理生日字段（可能为 null）
-                    Date birthday = rs.getDate("birthday");
-                    if (birthday != null) {
-                        response.setBirthday(birthday.toString());
-                    } else {
-                        response.setBirthday("");
-                    }
-
-                    // 处理电话字段（可能为 null）
-                    String tele = rs.getString("tele");
-                    response.setTele(tele != null ? tele : "");
-
-                    // 如果结果集中没有某些字段，设为默认值
-                    if (rs.wasNull()) {
-                        response.setGender(0); // 0表示未知
-                    }
-                } else {
-                    response.setSuccess(false);
-                    response.setMessage("好友不存在");
-                }
+        try {
+            UserProfileCache.Profile profile = UserProfileCache.get(friendId);
+            if (profile != null) {
+                response.setSuccess(true);
+                response.setFriendId(profile.uid());
+                response.setUsername(profile.username());
+                response.setAvatarUrl(profile.avatarUrl());
+                response.setGender(profile.gender()); // 0表示未知
+
+                // 生日、电话可能为 null
+                response.setBirthday(profile.birthday() != null ? profile.birthday() : "");
+                response.setTele(profile.tele() != null ? profile.tele() : "");
+
+                // 共同所在的群（两个用户的群位图求交集）
+                response.setMutualGroupCount(GroupMembershipCache.getMutualGroupCount(userId, friendId));
+            } else {
+                response.setSuccess(false);
+                response.setMessage("好友不存在");
             }
         } catch (SQLException e) {
             System.err.println("[GET_FRIEND_DETAIL] SQL error: " + e.getMessage());
@@ -328,9 +286,7 @@ public class FriendService {
             }
 
             // 2. 删除双向好友关系
-            String deleteSql = "DELETE FROM friendship WHERE " +
-                    "(user_id = ? AND friend_id = ?) OR " +
-                    "(user_id = ? AND friend_id = ?)";
+            String deleteSql = "DELETE FROM friendship WHERE (user_id, friend_id) IN ((?, ?), (?, ?))";
 
             try (PreparedStatement deleteStmt = conn.prepareStatement(deleteSql)) {
                 deleteStmt.setLong(1, userId);
@@ -344,6 +300,7 @@ public class FriendService {
                     response.setSuccess(true);
                     response.setMessage("好友删除成功");
                     conn.commit();
+                    FriendshipGraph.onFriendRemoved(userId, friendId);
                 } else {
                     response.setSuccess(false);
                     response.setMessage("好友删除失败");
@@ -0,0 +1,117 @@
+package com.chat.core;
+
+import com.chat.utils.DatabaseManager;
+import com.chat.utils.UserIdBitmap;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 好友关系图 - 用户 -> 好友 ID 的压缩位图（UserIdBitmap），好友判断、好友列表不查 friendship
+ * - 用户第一次被访问时从数据库加载其好友
+ * - FriendService 建立 / 删除好友关系并提交后通知，两端的位图同时更新（未缓存的一端不加载）
+ * - 位图写时复制，读取无锁；返回的位图调用方不能修改
+ */
+public class FriendshipGraph {
+
+    private static final int VERSION_STRIPES = 64;
+
+    private static final String LOAD_SQL = "SELECT friend_id FROM friendship WHERE user_id = ? " +
+            "UNION " +
+            "SELECT user_id FROM friendship WHERE friend_id = ?";
+
+    // 用户 ID -> 好友 ID
+    private static final Map<Long, UserIdBitmap> friendsByUser = new ConcurrentHashMap<>();
+
+    // 按用户 ID 分段的变更计数：加载期间好友关系有变化时不把加载结果放进缓存（可能已过期）
+    private static final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    /**
+     * 用户的好友位图（只读）
+     */
+    public static UserIdBitmap getFriendBitmap(long userId) throws SQLException {
+        UserIdBitmap bitmap = friendsByUser.get(userId);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        long version = versions.get(stripe(userId));
+        UserIdBitmap loaded = load(userId);
+        if (versions.get(stripe(userId)) == version) {
+            UserIdBitmap raced = friendsByUser.putIfAbsent(userId, loaded);
+            if (raced != null) {
+                return raced;
+            }
+            // 放入前后刚好有变化：撤回
+            if (versions.get(stripe(userId)) != version) {
+                friendsByUser.remove(userId, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 两个用户是否是好友
+     */
+    public static boolean isFriend(long userId, long otherId) throws SQLException {
+        return getFriendBitmap(userId).contains(otherId);
+    }
+
+    /**
+     * 两个用户成为好友
+     */
+    public static void onFriendAdded(long userA, long userB) {
+        update(userA, userB, true);
+        update(userB, userA, true);
+    }
+
+    /**
+     * 两个用户解除好友关系
+     */
+    public static void onFriendRemoved(long userA, long userB) {
+        update(userA, userB, false);
+        update(userB, userA, false);
+    }
+
+    /**
+     * 写时复制地加入 / 移除一个好友（未缓存时不加载）
+     */
+    private static void update(long userId, long friendId, boolean add) {
+        versions.incrementAndGet(stripe(userId));
+        friendsByUser.computeIfPresent(userId, (k, bitmap) -> {
+            if (bitmap.contains(friendId) == add) {
+                return bitmap;
+            }
+            UserIdBitmap copy = bitmap.copy();
+            if (add) {
+                copy.add(friendId);
+            } else {
+                copy.remove(friendId);
+            }
+            return copy;
+        });
+    }
+
+    private static UserIdBitmap load(long userId) throws SQLException {
+        UserIdBitmap bitmap = new UserIdBitmap();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(LOAD_SQL)) {
+            stmt.setLong(1, userId);
+            stmt.setLong(2, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    bitmap.add(rs.getLong(1));
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    private static int stripe(long userId) {
+        return (int) (userId & (VERSION_STRIPES - 1));
+    }
+}
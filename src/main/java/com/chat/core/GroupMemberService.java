@@ -4,6 +4,7 @@ import com.chat.utils.DatabaseManager;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 群成员服务 - 处理群成员管理相关数据操作
@@ -41,6 +42,8 @@ public class GroupMemberService {
 
             int affected = stmt.executeUpdate();
             if (affected > 0) {
+                GroupMembershipCache.onMemberAdded(groupId, userId);
+                UnreadCounterStore.onJoinedGroup(userId, ChatService.groupConversationKey(groupId));
                 // 记录群成员变动（可选）
                 recordGroupMemberChange(groupId, userId, operatorId, "ADD");
                 return true;
@@ -62,6 +65,7 @@ public class GroupMemberService {
         }
 
         String sql = "INSERT INTO group_member (group_id, user_id) VALUES (?, ?)";
+        List<Long> added = new ArrayList<>();
 
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -73,6 +77,7 @@ public class GroupMemberService {
                         stmt.setLong(1, groupId);
                         stmt.setLong(2, userId);
                         stmt.addBatch();
+                        added.add(userId);
                         successCount++;
                     }
                 } catch (SQLException e) {
@@ -81,7 +86,16 @@ public class GroupMemberService {
             }
 
             if (successCount > 0) {
-                stmt.executeBatch();
+                try {
+                    stmt.executeBatch();
+                } finally {
+                    // 批量插入可能部分成功，丢弃缓存后按数据库重新加载
+                    GroupMembershipCache.invalidate(groupId, userIds);
+                }
+                String conversationKey = ChatService.groupConversationKey(groupId);
+                for (Long userId : added) {
+                    UnreadCounterStore.onJoinedGroup(userId, conversationKey);
+                }
 
                 // 记录批量添加操作
                 for (Long userId : userIds) {
@@ -117,41 +131,14 @@ public class GroupMemberService {
      * 检查用户是否在群中
      */
     public boolean isUserInGroup(Long groupId, Long userId) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM group_member WHERE group_id = ? AND user_id = ?";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setLong(1, groupId);
-            stmt.setLong(2, userId);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next() && rs.getInt(1) > 0;
-            }
-        }
+        return GroupMembershipCache.isMember(groupId, userId);
     }
 
     /**
      * 获取群成员列表
      */
     public List<Long> getGroupMembers(Long groupId) throws SQLException {
-        List<Long> members = new ArrayList<>();
-
-        String sql = "SELECT user_id FROM group_member WHERE group_id = ? ORDER BY id";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setLong(1, groupId);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    members.add(rs.getLong("user_id"));
-                }
-            }
-        }
-
-        return members;
+        return GroupMembershipCache.getMembers(groupId);
     }
 
     /**
@@ -160,13 +147,10 @@ public class GroupMemberService {
     public List<Object[]> getGroupMemberDetails(Long groupId) throws SQLException {
         List<Object[]> members = new ArrayList<>();
 
-        String sql = "SELECT ua.uid, ua.username, up.avatar_url " +
-                "FROM user_auth ua " +
-                "LEFT JOIN user_profile up ON ua.uid = up.user_id " +
-                "INNER JOIN group_member gm ON ua.uid = gm.user_id " +
-                "WHERE gm.group_id = ? " +
-                "ORDER BY gm.id";
+        // 按加入顺序取成员 ID，用户名、头像从资料缓存批量取
+        String sql = "SELECT user_id FROM group_member WHERE group_id = ? ORDER BY id";
 
+        List<Long> memberIds = new ArrayList<>();
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
 
@@ -174,15 +158,19 @@ public class GroupMemberService {
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    Object[] memberInfo = new Object[3];
-                    memberInfo[0] = rs.getLong("uid");
-                    memberInfo[1] = rs.getString("username");
-                    memberInfo[2] = rs.getString("avatar_url");
-                    members.add(memberInfo);
+                    memberIds.add(rs.getLong(1));
                 }
             }
         }
 
+        Map<Long, UserProfileCache.Profile> profiles = UserProfileCache.getAll(memberIds);
+        for (Long memberId : memberIds) {
+            UserProfileCache.Profile profile = profiles.get(memberId);
+            if (profile != null) {
+                members.add(new Object[]{profile.uid(), profile.username(), profile.avatarUrl()});
+            }
+        }
+
         return members;
     }
 
@@ -210,6 +198,7 @@ public class GroupMemberService {
 
             int affected = stmt.executeUpdate();
             if (affected > 0) {
+                GroupMembershipCache.onMemberRemoved(groupId, userId);
                 recordGroupMemberChange(groupId, userId, operatorId, "REMOVE");
                 return true;
             }
@@ -248,21 +237,7 @@ public class GroupMemberService {
      * 获取群组成员数量
      */
     public int getGroupMemberCount(Long groupId) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM group_member WHERE group_id = ?";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-            stmt.setLong(1, groupId);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1);
-                }
-            }
-        }
-
-        return 0;
+        return GroupMembershipCache.getMemberCount(groupId);
     }
 
     /**
@@ -0,0 +1,184 @@
+package com.chat.core;
+
+import com.chat.utils.DatabaseManager;
+import com.chat.utils.UserIdBitmap;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 群成员缓存 - 群 -> 成员、用户 -> 所在群，均为压缩位图（UserIdBitmap），稳定状态下成员检查不查 group_member
+ * - 未缓存的群 / 用户在第一次访问时从数据库加载
+ * - 成员变化由 GroupService / GroupMemberService 在写库成功后通知：单个成员增删直接更新两个方向，批量变化丢弃缓存
+ * - 缓存的位图写时复制：变化时复制、修改后整体替换，读取无锁；返回的位图调用方不能修改
+ */
+public class GroupMembershipCache {
+
+    private static final int VERSION_STRIPES = 64;
+
+    // 群 ID -> 成员 ID
+    private static final Map<Long, UserIdBitmap> membersByGroup = new ConcurrentHashMap<>();
+
+    // 用户 ID -> 所在群 ID
+    private static final Map<Long, UserIdBitmap> groupsByUser = new ConcurrentHashMap<>();
+
+    // 按 ID 分段的变更计数：加载期间有成员变化时不把加载结果放进缓存（可能已过期）
+    private static final AtomicLongArray groupVersions = new AtomicLongArray(VERSION_STRIPES);
+    private static final AtomicLongArray userVersions = new AtomicLongArray(VERSION_STRIPES);
+
+    /**
+     * 群成员位图（只读）
+     */
+    public static UserIdBitmap getMemberBitmap(long groupId) throws SQLException {
+        return cached(membersByGroup, groupVersions, groupId,
+                "SELECT user_id FROM group_member WHERE group_id = ?");
+    }
+
+    /**
+     * 用户所在群的位图（只读）
+     */
+    public static UserIdBitmap getGroupBitmap(long userId) throws SQLException {
+        return cached(groupsByUser, userVersions, userId,
+                "SELECT group_id FROM group_member WHERE user_id = ?");
+    }
+
+    /**
+     * 群成员 ID 列表（按 ID 升序）
+     */
+    public static List<Long> getMembers(long groupId) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        getMemberBitmap(groupId).forEach(ids::add);
+        return ids;
+    }
+
+    /**
+     * 用户是否在群中
+     */
+    public static boolean isMember(long groupId, long userId) throws SQLException {
+        return getMemberBitmap(groupId).contains(userId);
+    }
+
+    /**
+     * 群成员数
+     */
+    public static int getMemberCount(long groupId) throws SQLException {
+        return getMemberBitmap(groupId).cardinality();
+    }
+
+    /**
+     * 两个用户共同所在的群数
+     */
+    public static int getMutualGroupCount(long userA, long userB) throws SQLException {
+        return getGroupBitmap(userA).andCardinality(getGroupBitmap(userB));
+    }
+
+    /**
+     * 新建的群（成员只有群主）
+     */
+    public static void onGroupCreated(long groupId, long ownerId) {
+        UserIdBitmap owner = new UserIdBitmap();
+        owner.add(ownerId);
+        bump(groupVersions, groupId);
+        membersByGroup.put(groupId, owner);
+        update(groupsByUser, userVersions, ownerId, groupId, true);
+    }
+
+    /**
+     * 用户加入群
+     */
+    public static void onMemberAdded(long groupId, long userId) {
+        update(membersByGroup, groupVersions, groupId, userId, true);
+        update(groupsByUser, userVersions, userId, groupId, true);
+    }
+
+    /**
+     * 用户退出或被移出群
+     */
+    public static void onMemberRemoved(long groupId, long userId) {
+        update(membersByGroup, groupVersions, groupId, userId, false);
+        update(groupsByUser, userVersions, userId, groupId, false);
+    }
+
+    /**
+     * 群成员发生了批量变化（userIds 为可能变化的用户），下次访问时重新加载
+     */
+    public static void invalidate(long groupId, Collection<Long> userIds) {
+        bump(groupVersions, groupId);
+        membersByGroup.remove(groupId);
+        for (Long userId : userIds) {
+            bump(userVersions, userId);
+            groupsByUser.remove(userId);
+        }
+    }
+
+    /**
+     * 写时复制地加入 / 移除一个元素（未缓存时不加载）
+     */
+    private static void update(Map<Long, UserIdBitmap> cache, AtomicLongArray versions,
+                               long key, long value, boolean add) {
+        bump(versions, key);
+        cache.computeIfPresent(key, (k, bitmap) -> {
+            if (bitmap.contains(value) == add) {
+                return bitmap;
+            }
+            UserIdBitmap copy = bitmap.copy();
+            if (add) {
+                copy.add(value);
+            } else {
+                copy.remove(value);
+            }
+            return copy;
+        });
+    }
+
+    private static UserIdBitmap cached(Map<Long, UserIdBitmap> cache, AtomicLongArray versions,
+                                       long key, String sql) throws SQLException {
+        UserIdBitmap bitmap = cache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+        long version = versions.get(stripe(key));
+        UserIdBitmap loaded = load(sql, key);
+        if (versions.get(stripe(key)) == version) {
+            UserIdBitmap raced = cache.putIfAbsent(key, loaded);
+            if (raced != null) {
+                return raced;
+            }
+            // 放入前后刚好有变化：撤回
+            if (versions.get(stripe(key)) != version) {
+                cache.remove(key, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    private static UserIdBitmap load(String sql, long key) throws SQLException {
+        UserIdBitmap bitmap = new UserIdBitmap();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, key);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    bitmap.add(rs.getLong(1));
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    private static void bump(AtomicLongArray versions, long key) {
+        versions.incrementAndGet(stripe(key));
+    }
+
+    private static int stripe(long key) {
+        return (int) (key & (VERSION_STRIPES - 1));
+    }
+}
@@ -4,10 +4,14 @@ import com.chat.protocol.ExitGroupResponse;
 import com.chat.protocol.GroupDetailResponse;
 import com.chat.protocol.GroupListResponse;
 import com.chat.utils.DatabaseManager;
+import com.chat.utils.OnlineUserManager;
+import com.chat.utils.UserIdBitmap;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 群组服务 - 处理群组相关数据操作
@@ -66,6 +70,7 @@ public class GroupService {
             }
 
             conn.commit();
+            GroupMembershipCache.onGroupCreated(groupId, ownerId);
             return groupId;
 
         } catch (SQLException e) {
@@ -154,14 +159,8 @@ public class GroupService {
      * 检查用户是否在群组中
      */
     public boolean isUserInGroup(Long userId, Long groupId) {
-        String sql = "SELECT id FROM group_member WHERE user_id = ? AND group_id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, userId);
-            stmt.setLong(2, groupId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
-            }
+        try {
+            return GroupMembershipCache.isMember(groupId, userId);
         } catch (SQLException e) {
             System.err.println("[CHECK_GROUP_MEMBER] SQL error: " + e.getMessage());
             return false;
@@ -188,7 +187,8 @@ public class GroupService {
             conn = DatabaseManager.getConnection();
 
             // 2. 获取群基本信息
-            String groupSql = "SELECT id, name, avatar FROM group_info WHERE id = ?";
+            long ownerId = 0;
+            String groupSql = "SELECT id, name, avatar, owner_id FROM group_info WHERE id = ?";
             try (PreparedStatement groupStmt = conn.prepareStatement(groupSql)) {
                 groupStmt.setLong(1, groupId);
 
@@ -198,6 +198,7 @@ public class GroupService {
                         response.setGroupId(rs.getLong("id"));
                         response.setGroupName(rs.getString("name"));
                         response.setAvatarUrl(rs.getString("avatar"));
+                        ownerId = rs.getLong("owner_id");
 
                         // 群公告（根据你的表结构，可能需要额外字段，这里假设从group_info获取）
                         response.setNotice("暂无群公告"); // 默认值
@@ -209,26 +210,16 @@ public class GroupService {
                 }
             }
 
-            // 3. 获取成员数量
-            String countSql = "SELECT COUNT(*) as count FROM group_member WHERE group_id = ?";
-            try (PreparedStatement countStmt = conn.prepareStatement(countSql)) {
-                countStmt.setLong(1, groupId);
-                try (ResultSet rs = countStmt.executeQuery()) {
-                    if (rs.next()) {
-                        response.setMemberCount(rs.getInt("count"));
-                    }
-                }
-            }
+            // 3. 获取成员数量、在线成员（群成员位图 ∧ 在线用户位图）
+            UserIdBitmap memberIds = GroupMembershipCache.getMemberBitmap(groupId);
+            UserIdBitmap onlineMembers = OnlineUserManager.onlineAmong(memberIds);
+            response.setMemberCount(memberIds.cardinality());
+            response.setOnlineMemberCount(onlineMembers.cardinality());
 
             // 4. 获取当前用户在群中的昵称（从user_auth获取用户名）
-            String userSql = "SELECT username FROM user_auth WHERE uid = ?";
-            try (PreparedStatement userStmt = conn.prepareStatement(userSql)) {
-                userStmt.setLong(1, userId);
-                try (ResultSet rs = userStmt.executeQuery()) {
-                    if (rs.next()) {
-                        response.setMyNickname(rs.getString("username"));
-                    }
-                }
+            UserProfileCache.Profile me = UserProfileCache.get(userId);
+            if (me != null) {
+                response.setMyNickname(me.username());
             }
 
             // 5. 获取当前用户的角色（群主或成员）
@@ -247,7 +238,7 @@ public class GroupService {
             }
 
             // 6. 获取群成员列表（简化版）
-            List<GroupDetailResponse.GroupMember> members = getGroupMembers(groupId);
+            List<GroupDetailResponse.GroupMember> members = getGroupMembers(memberIds, ownerId, onlineMembers);
             response.setMembers(members);
 
             // 7. 获取群文件列表（从message表中获取文件类型的消息）
@@ -273,41 +264,33 @@ public class GroupService {
     }
 
     /**
-     * 获取群成员列表
+     * 获取群成员列表（成员来自群成员缓存，用户名、头像从资料缓存批量取；群主在前，其余按用户名排序）
      */
-    private List<GroupDetailResponse.GroupMember> getGroupMembers(Long groupId) {
-        List<GroupDetailResponse.GroupMember> members = new ArrayList<>();
-
-        String sql = "SELECT ua.uid, ua.username, up.avatar_url, " +
-                "CASE WHEN gi.owner_id = ua.uid THEN 2 ELSE 0 END as role " +
-                "FROM group_member gm " +
-                "JOIN user_auth ua ON gm.user_id = ua.uid " +
-                "LEFT JOIN user_profile up ON ua.uid = up.user_id " +
-                "JOIN group_info gi ON gm.group_id = gi.id " +
-                "WHERE gm.group_id = ? " +
-                "ORDER BY role DESC, ua.username";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, groupId);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    GroupDetailResponse.GroupMember member = new GroupDetailResponse.GroupMember();
-                    member.setUserId(rs.getLong("uid"));
-                    member.setUsername(rs.getString("username"));
-                    member.setAvatarUrl(rs.getString("avatar_url"));
-                    member.setNickname(rs.getString("username")); // 默认使用用户名作为群昵称
-                    member.setRole(rs.getInt("role"));
-                    member.setStatus(0); // 默认离线状态，实际可以结合在线用户管理
-
-                    members.add(member);
-                }
+    private List<GroupDetailResponse.GroupMember> getGroupMembers(UserIdBitmap memberIds, long ownerId,
+                                                                  UserIdBitmap onlineMembers) throws SQLException {
+        List<Long> ids = new ArrayList<>(memberIds.cardinality());
+        memberIds.forEach(ids::add);
+        Map<Long, UserProfileCache.Profile> profiles = UserProfileCache.getAll(ids);
+
+        List<GroupDetailResponse.GroupMember> members = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            UserProfileCache.Profile profile = profiles.get(id);
+            if (profile == null) {
+                continue;
             }
-        } catch (SQLException e) {
-            System.err.println("[GET_GROUP_MEMBERS] SQL error: " + e.getMessage());
-            e.printStackTrace();
+            GroupDetailResponse.GroupMember member = new GroupDetailResponse.GroupMember();
+            member.setUserId(profile.uid());
+            member.setUsername(profile.username());
+            member.setAvatarUrl(profile.avatarUrl());
+            member.setNickname(profile.username()); // 默认使用用户名作为群昵称
+            member.setRole(id == ownerId ? 2 : 0);
+            member.setStatus(onlineMembers.contains(id) ? 1 : 0);
+
+            members.add(member);
         }
+        members.sort(Comparator.comparingInt(GroupDetailResponse.GroupMember::getRole).reversed()
+                .thenComparing(GroupDetailResponse.GroupMember::getUsername,
+                        Comparator.nullsFirst(Comparator.naturalOrder())));
 
         return members;
     }
@@ -409,6 +392,7 @@ public class GroupService {
 
             int rowsDeleted = stmt.executeUpdate();
             if (rowsDeleted > 0) {
+                GroupMembershipCache.onMemberRemoved(groupId, userId);
                 response.setSuccess(true);
                 response.setMessage("成功退出群聊");
                 response.setGroupId(groupId);
@@ -0,0 +1,164 @@
+package com.chat.core;
+
+import com.chat.protocol.ChatHistoryResponse;
+import com.chat.protocol.InboxSyncResponse;
+import com.chat.server.ServerConfig;
+import com.chat.utils.DatabaseManager;
+import com.chat.utils.MessageIdGenerator;
+import com.chat.utils.UserIdBitmap;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 离线消息同步服务 - 用户登录后把投递游标之后发给他的消息（私聊 + 所在群，跨所有会话）一次查出，
+ * 分成几帧大的 inbox_sync 发给客户端，代替客户端逐个会话拉取历史
+ */
+public class InboxService {
+
+    private static final DateTimeFormatter DATETIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final String COLUMNS = "SELECT id, sender_id, receiver_id, group_id, content, content_type, " +
+            "file_url, file_size, file_name, timestamp FROM message ";
+
+    // 等待写库线程处理完登录前提交的消息的最长时间
+    private static final long AWAIT_WRITER_MILLIS = 1000;
+
+    /**
+     * 同步用户的离线消息，返回要依次发送的帧（至少一帧，最后一帧 last = true）
+     */
+    public List<InboxSyncResponse> sync(long userId) throws SQLException, InterruptedException {
+        Long cursor = DeliveryCursorStore.getCursor(userId);
+        if (cursor == null) {
+            // 第一次登录（或开启同步之前的用户）：没有可比较的游标，从现在开始记录
+            DeliveryCursorStore.advance(userId, MessageIdGenerator.firstIdAt(System.currentTimeMillis()));
+            return List.of(frame(List.of(), true, false, null));
+        }
+
+        // 登录前发出、还在写库队列中的消息先入库，否则既没有推送（当时不在线）也查不到
+        if (!MessageWriter.awaitWritten(AWAIT_WRITER_MILLIS)) {
+            System.err.println("[INBOX] 等待消息入库超时，用户 " + userId + " 可能有消息要到下次登录才同步");
+        }
+
+        int max = Math.max(1, ServerConfig.INBOX_MAX_MESSAGES);
+        List<ChatHistoryResponse.HistoryMessageItem> messages = queryMissed(userId, cursor, max + 1);
+        boolean hasMore = messages.size() > max;
+        if (hasMore) {
+            // 只保留最新的 max 条
+            messages = messages.subList(0, max);
+        }
+        Collections.reverse(messages);
+
+        Long lastId = messages.isEmpty() ? null : messages.get(messages.size() - 1).getId();
+        if (lastId != null) {
+            DeliveryCursorStore.advance(userId, lastId);
+        }
+
+        int batchSize = Math.max(1, ServerConfig.INBOX_BATCH_SIZE);
+        List<InboxSyncResponse> frames = new ArrayList<>();
+        for (int from = 0; from < messages.size() || frames.isEmpty(); from += batchSize) {
+            int to = Math.min(messages.size(), from + batchSize);
+            boolean last = to == messages.size();
+            frames.add(frame(new ArrayList<>(messages.subList(from, to)), last, last && hasMore, last ? lastId : null));
+        }
+        System.out.println("[INBOX] 用户 " + userId + " 同步 " + messages.size() + " 条离线消息，共 " + frames.size() + " 帧"
+                + (hasMore ? "（超过上限，更早的需拉取历史）" : ""));
+        return frames;
+    }
+
+    /**
+     * 连接断开：在线期间的消息已实时推送，游标前进到 chat.inbox.graceMillis 之前
+     */
+    public void onDisconnect(long userId) {
+        long before = System.currentTimeMillis() - Math.max(0, ServerConfig.INBOX_GRACE_MILLIS);
+        DeliveryCursorStore.advance(userId, MessageIdGenerator.firstIdAt(before));
+    }
+
+    /**
+     * 一条查询取出游标之后发给用户的最新 limit 条消息（按 ID 从新到旧）：
+     * 收到的私聊走 receiver_id 索引，所在群走 (conversation_key, id) 索引，自己在群里发的不算
+     */
+    private List<ChatHistoryResponse.HistoryMessageItem> queryMissed(long userId, long cursor, int limit)
+            throws SQLException {
+        List<String> groupKeys = new ArrayList<>();
+        UserIdBitmap groupIds = GroupMembershipCache.getGroupBitmap(userId);
+        groupIds.forEach(groupId -> groupKeys.add(ChatService.groupConversationKey(groupId)));
+
+        StringBuilder sql = new StringBuilder("(").append(COLUMNS)
+                .append("WHERE receiver_id = ? AND group_id IS NULL AND id > ? ORDER BY id DESC LIMIT ?)");
+        if (!groupKeys.isEmpty()) {
+            sql.append(" UNION ALL (").append(COLUMNS).append("WHERE conversation_key IN (");
+            for (int i = 0; i < groupKeys.size(); i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(") AND id > ? AND sender_id <> ? ORDER BY id DESC LIMIT ?)");
+        }
+        sql.append(" ORDER BY id DESC LIMIT ?");
+
+        List<ChatHistoryResponse.HistoryMessageItem> messages = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            stmt.setLong(p++, userId);
+            stmt.setLong(p++, cursor);
+            stmt.setInt(p++, limit);
+            if (!groupKeys.isEmpty()) {
+                for (String key : groupKeys) {
+                    stmt.setString(p++, key);
+                }
+                stmt.setLong(p++, cursor);
+                stmt.setLong(p++, userId);
+                stmt.setInt(p++, limit);
+            }
+            stmt.setInt(p, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    ChatHistoryResponse.HistoryMessageItem message = new ChatHistoryResponse.HistoryMessageItem();
+                    message.setId(rs.getLong("id"));
+                    message.setSenderId(rs.getLong("sender_id"));
+                    long receiverId = rs.getLong("receiver_id");
+                    if (!rs.wasNull()) {
+                        message.setReceiverId(receiverId);
+                    }
+                    long groupId = rs.getLong("group_id");
+                    if (!rs.wasNull()) {
+                        message.setGroupId(groupId);
+                    }
+                    message.setContent(rs.getString("content"));
+                    message.setContentType(rs.getString("content_type"));
+                    message.setFileUrl(rs.getString("file_url"));
+                    long fileSize = rs.getLong("file_size");
+                    if (!rs.wasNull()) {
+                        message.setFileSize(fileSize);
+                    }
+                    message.setFileName(rs.getString("file_name"));
+                    Timestamp timestamp = rs.getTimestamp("timestamp");
+                    if (timestamp != null) {
+                        message.setTimestamp(DATETIME_FORMATTER.format(timestamp.toLocalDateTime()));
+                    }
+                    message.setIsRead(0);
+                    messages.add(message);
+                }
+            }
+        }
+        return messages;
+    }
+
+    private static InboxSyncResponse frame(List<ChatHistoryResponse.HistoryMessageItem> messages,
+                                           boolean last, boolean hasMore, Long lastId) {
+        InboxSyncResponse frame = new InboxSyncResponse();
+        frame.setMessages(messages);
+        frame.setLast(last);
+        frame.setHasMore(hasMore);
+        frame.setLastId(lastId);
+        return frame;
+    }
+}
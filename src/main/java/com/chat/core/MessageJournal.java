@@ -0,0 +1,493 @@
+package com.chat.core;
+
+import com.chat.server.ServerConfig;
+import com.chat.utils.DatabaseManager;
+import com.chat.utils.MessageIdGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 聊天消息预写日志（write-ahead journal）
+ * - 发送的消息先追加到本地日志，整批 fsync 后即确认发送成功，再交给 MessageWriter 异步写入 MySQL
+ * - 日志按 chat.journal.segmentBytes 分段，每段是一个内存映射文件，文件名为段内第一条记录的序号
+ * - 记录格式：[4 字节负载长度][8 字节序号][4 字节负载 CRC32][负载]，长度为 0 表示段内没有更多记录
+ * - 表 message_journal_checkpoint 记录连续入库的最大序号（之前的记录全部已入库），与消息在同一事务内更新：
+ *   启动时只重放序号更大的记录，已入库的记录重放时按主键重复跳过；记录全部入库的段随后删除
+ * - 某条记录因暂时性错误没能入库时 checkpoint 停在它之前，它所在的段保留，重启后重放；
+ *   数据类错误的记录由 MessageWriter 转入 message_dead_letter，checkpoint 随之越过
+ */
+public class MessageJournal {
+
+    private static final int HEADER_BYTES = 16;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String CREATE_CHECKPOINT_TABLE = "CREATE TABLE IF NOT EXISTS message_journal_checkpoint (" +
+            "id TINYINT NOT NULL PRIMARY KEY, last_seq BIGINT NOT NULL)";
+    private static final String UPDATE_CHECKPOINT = "INSERT INTO message_journal_checkpoint (id, last_seq) " +
+            "VALUES (1, ?) ON DUPLICATE KEY UPDATE last_seq = GREATEST(last_seq, VALUES(last_seq))";
+
+    private static final BlockingQueue<MessageWriter.PendingMessage> queue =
+            new ArrayBlockingQueue<>(Math.max(1, ServerConfig.PERSIST_QUEUE_CAPACITY));
+
+    // 已写满（或启动时遗留）的段，按序号排列；由日志线程追加、由写库线程在入库后删除
+    private static final Object segmentsLock = new Object();
+    private static final Deque<Segment> closedSegments = new ArrayDeque<>();
+    private static final List<Path> undeleted = new ArrayList<>();
+
+    // 已分配序号、尚未入库的记录；checkpoint 不能越过其中最小的一个
+    private static final NavigableSet<Long> inflight = new ConcurrentSkipListSet<>();
+    private static volatile long lastAssignedSeq;
+
+    // 以下只在日志线程中使用
+    private static Segment active;
+    private static int syncedPosition;
+    private static long nextSeq;
+
+    private static Path dir;
+    private static Thread thread;
+    private static volatile boolean enabled;
+    private static volatile boolean running;
+
+    /**
+     * 一个日志段
+     */
+    private static final class Segment {
+        final Path path;
+        FileChannel channel;
+        MappedByteBuffer buffer;
+        long lastSeq;
+
+        Segment(Path path, long lastSeq) {
+            this.path = path;
+            this.lastSeq = lastSeq;
+        }
+    }
+
+    /**
+     * 打开日志并重放尚未入库的记录；失败时不启用日志，消息直接写入数据库
+     */
+    public static synchronized void start() {
+        if (thread != null || !ServerConfig.JOURNAL_ENABLED) {
+            return;
+        }
+        try {
+            dir = Paths.get(ServerConfig.JOURNAL_DIR);
+            Files.createDirectories(dir);
+            long checkpoint = readCheckpoint();
+            long lastSeq = recover(checkpoint);
+            nextSeq = Math.max(lastSeq, checkpoint) + 1;
+            active = openSegment(nextSeq, ServerConfig.JOURNAL_SEGMENT_BYTES);
+        } catch (IOException | SQLException e) {
+            System.err.println("[JOURNAL] 日志启动失败，消息将直接写入数据库: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        enabled = true;
+        running = true;
+        thread = new Thread(MessageJournal::appendLoop, "message-journal");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("[JOURNAL] 日志目录 " + dir.toAbsolutePath() + "，下一条序号 " + nextSeq);
+    }
+
+    /**
+     * 提交一条消息：先写日志，fsync 后确认并交给 MessageWriter；未启用日志时直接交给 MessageWriter
+     */
+    public static void submit(MessageWriter.PendingMessage message) throws InterruptedException {
+        if (!enabled) {
+            MessageWriter.submit(message);
+            return;
+        }
+        MessageWriter.countSubmitted(1);
+        try {
+            queue.put(message);
+        } catch (InterruptedException e) {
+            MessageWriter.countSubmitted(-1);
+            throw e;
+        }
+    }
+
+    /**
+     * 停止日志线程，已排队的消息全部写入日志并交给 MessageWriter 后返回
+     */
+    public static void shutdown() {
+        Thread t;
+        synchronized (MessageJournal.class) {
+            t = thread;
+            running = false;
+        }
+        if (t == null) {
+            return;
+        }
+        try {
+            t.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        enabled = false;
+    }
+
+    private static void appendLoop() {
+        int batchSize = Math.max(1, ServerConfig.PERSIST_BATCH_SIZE);
+        List<MessageWriter.PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                MessageWriter.PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                // 上一批 fsync 期间到达的消息一起写入（组提交）
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                appendBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        closeActive();
+        System.out.println("[JOURNAL] 日志线程已停止");
+    }
+
+    /**
+     * 写入一批记录并 fsync，成功后确认；之后按顺序交给 MessageWriter
+     */
+    private static void appendBatch(List<MessageWriter.PendingMessage> batch) throws InterruptedException {
+        boolean durable = false;
+        try {
+            for (MessageWriter.PendingMessage m : batch) {
+                byte[] payload = encode(m);
+                ensureCapacity(payload.length);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                long seq = nextSeq++;
+                active.buffer.putInt(payload.length).putLong(seq).putInt((int) crc.getValue()).put(payload);
+                active.lastSeq = seq;
+                m.journalSeq = seq;
+                track(seq);
+            }
+            sync();
+            durable = true;
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("[JOURNAL] 写入日志失败，本批消息入库后再确认: " + e.getMessage());
+            e.printStackTrace();
+        }
+        for (MessageWriter.PendingMessage m : batch) {
+            if (durable) {
+                m.accept(true);
+            }
+            MessageWriter.forward(m);
+        }
+    }
+
+    /**
+     * 当前段剩余空间不足时换一个新段（超大的记录单独占一个足够大的段）
+     */
+    private static void ensureCapacity(int payloadLength) throws IOException {
+        if (active != null && active.buffer.remaining() >= HEADER_BYTES + payloadLength) {
+            return;
+        }
+        closeActive();
+        active = openSegment(nextSeq, Math.max(ServerConfig.JOURNAL_SEGMENT_BYTES, HEADER_BYTES + payloadLength));
+    }
+
+    /**
+     * 把当前段中未落盘的部分刷到磁盘
+     */
+    private static void sync() {
+        if (active == null) {
+            return;
+        }
+        int position = active.buffer.position();
+        if (position > syncedPosition) {
+            active.buffer.force(syncedPosition, position - syncedPosition);
+            syncedPosition = position;
+        }
+    }
+
+    private static Segment openSegment(long firstSeq, int size) throws IOException {
+        Path path = dir.resolve(String.format("%020d%s", firstSeq, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, 0);
+        segment.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        syncedPosition = 0;
+        return segment;
+    }
+
+    private static void closeActive() {
+        if (active == null) {
+            return;
+        }
+        sync();
+        try {
+            active.channel.close();
+        } catch (IOException e) {
+            System.err.println("[JOURNAL] 关闭日志段失败: " + e.getMessage());
+        }
+        Segment closed = active;
+        active = null;
+        if (closed.lastSeq == 0) {
+            deleteSegments(List.of(closed.path));
+            return;
+        }
+        synchronized (segmentsLock) {
+            closedSegments.addLast(closed);
+        }
+    }
+
+    /**
+     * 启动时扫描所有段，把序号大于 checkpoint 的记录重新交给 MessageWriter，返回日志中的最大序号
+     */
+    private static long recover(long checkpoint) throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(dir)) {
+            files = stream.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        long lastSeq = 0;
+        int replayed = 0;
+        for (Path file : files) {
+            List<MessageWriter.PendingMessage> pending = new ArrayList<>();
+            long segmentLastSeq = 0;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= HEADER_BYTES) {
+                    int length = buffer.getInt();
+                    long seq = buffer.getLong();
+                    int checksum = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining()) {
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    buffer.get(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        // 写到一半时崩溃留下的残缺记录，未确认过，丢弃
+                        System.err.println("[JOURNAL] " + file.getFileName() + " 中序号 " + seq + " 的记录校验失败，已忽略");
+                        break;
+                    }
+                    segmentLastSeq = seq;
+                    if (seq > checkpoint) {
+                        MessageWriter.PendingMessage m = decode(payload, seq);
+                        if (m == null) {
+                            System.err.println("[JOURNAL] " + file.getFileName() + " 中序号 " + seq + " 的记录没有消息 ID，已损坏，不重放");
+                            continue;
+                        }
+                        pending.add(m);
+                    }
+                }
+            }
+            lastSeq = Math.max(lastSeq, segmentLastSeq);
+            if (pending.isEmpty()) {
+                deleteSegments(List.of(file));
+                continue;
+            }
+            synchronized (segmentsLock) {
+                closedSegments.addLast(new Segment(file, segmentLastSeq));
+            }
+            for (MessageWriter.PendingMessage m : pending) {
+                track(m.journalSeq);
+                MessageWriter.submit(m);
+            }
+            replayed += pending.size();
+        }
+        if (replayed > 0) {
+            System.out.println("[JOURNAL] 重放 " + replayed + " 条未入库的消息（checkpoint=" + checkpoint + "）");
+        }
+        return lastSeq;
+    }
+
+    /**
+     * 记录已分配序号（先加入 inflight 再更新 lastAssignedSeq，见 checkpointExcluding）
+     */
+    private static void track(long seq) {
+        inflight.add(seq);
+        if (seq > lastAssignedSeq) {
+            lastAssignedSeq = seq;
+        }
+    }
+
+    /**
+     * 一批记录入库后可以保存的 checkpoint：除这批以外最早未入库的序号之前，没有未入库的记录时为已分配的最大序号
+     */
+    static long checkpointExcluding(List<MessageWriter.PendingMessage> batch) {
+        // 先读 lastAssignedSeq：之后分配的序号都比它大，之前分配的已在 inflight 中
+        long checkpoint = lastAssignedSeq;
+        for (Long seq : inflight) {
+            if (seq > checkpoint) {
+                break;
+            }
+            if (!contains(batch, seq)) {
+                checkpoint = seq - 1;
+                break;
+            }
+        }
+        return checkpoint;
+    }
+
+    private static boolean contains(List<MessageWriter.PendingMessage> batch, long seq) {
+        for (MessageWriter.PendingMessage m : batch) {
+            if (m.journalSeq == seq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * MessageWriter 确认一批记录已入库后调用：移出 inflight，删除记录都不晚于 checkpoint 的段
+     */
+    static void onCommitted(List<MessageWriter.PendingMessage> batch, long checkpoint) {
+        for (MessageWriter.PendingMessage m : batch) {
+            if (m.journalSeq > 0) {
+                inflight.remove(m.journalSeq);
+            }
+        }
+        List<Path> obsolete = new ArrayList<>();
+        synchronized (segmentsLock) {
+            while (!closedSegments.isEmpty() && closedSegments.peekFirst().lastSeq <= checkpoint) {
+                obsolete.add(closedSegments.pollFirst().path);
+            }
+            if (obsolete.isEmpty() && undeleted.isEmpty()) {
+                return;
+            }
+            obsolete.addAll(undeleted);
+            undeleted.clear();
+        }
+        deleteSegments(obsolete);
+    }
+
+    private static void deleteSegments(List<Path> paths) {
+        for (Path path : paths) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                // Windows 下映射未释放的文件无法删除，下次再试
+                synchronized (segmentsLock) {
+                    undeleted.add(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在写入消息的事务中推进 checkpoint
+     */
+    static void saveCheckpoint(Connection conn, long seq) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(UPDATE_CHECKPOINT)) {
+            stmt.setLong(1, seq);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static long readCheckpoint() throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_CHECKPOINT_TABLE);
+            try (ResultSet rs = stmt.executeQuery("SELECT last_seq FROM message_journal_checkpoint WHERE id = 1")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    // 负载中可选字段的存在位
+    private static final int HAS_RECEIVER = 1;
+    private static final int HAS_GROUP = 1 << 1;
+    private static final int HAS_CONTENT = 1 << 2;
+    private static final int HAS_FILE_URL = 1 << 3;
+    private static final int HAS_FILE_SIZE = 1 << 4;
+    private static final int HAS_FILE_NAME = 1 << 5;
+    private static final int HAS_ID = 1 << 6;
+
+    static byte[] encode(MessageWriter.PendingMessage m) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        int flags = (m.receiverId != null ? HAS_RECEIVER : 0) | (m.groupId != null ? HAS_GROUP : 0)
+                | (m.content != null ? HAS_CONTENT : 0) | (m.fileUrl != null ? HAS_FILE_URL : 0)
+                | (m.fileSize != null ? HAS_FILE_SIZE : 0) | (m.fileName != null ? HAS_FILE_NAME : 0) | HAS_ID;
+        out.writeByte(flags);
+        out.writeLong(m.id);
+        out.writeLong(m.senderId);
+        if (m.receiverId != null) out.writeLong(m.receiverId);
+        if (m.groupId != null) out.writeLong(m.groupId);
+        if (m.content != null) writeString(out, m.content);
+        writeString(out, m.contentType);
+        if (m.fileUrl != null) writeString(out, m.fileUrl);
+        if (m.fileSize != null) out.writeLong(m.fileSize);
+        if (m.fileName != null) writeString(out, m.fileName);
+        out.writeLong(m.timestamp);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解码一条记录，记录损坏（没有消息 ID）时返回 null
+     */
+    private static MessageWriter.PendingMessage decode(byte[] payload, long seq) {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        int flags = in.get();
+        if ((flags & HAS_ID) == 0) {
+            // 每条记录都带消息 ID（重放按主键去重），没有 ID 说明记录已损坏
+            return null;
+        }
+        long id = in.getLong();
+        MessageIdGenerator.observe(id);
+        Long senderId = in.getLong();
+        Long receiverId = (flags & HAS_RECEIVER) != 0 ? in.getLong() : null;
+        Long groupId = (flags & HAS_GROUP) != 0 ? in.getLong() : null;
+        String content = (flags & HAS_CONTENT) != 0 ? readString(in) : null;
+        String contentType = readString(in);
+        String fileUrl = (flags & HAS_FILE_URL) != 0 ? readString(in) : null;
+        Long fileSize = (flags & HAS_FILE_SIZE) != 0 ? in.getLong() : null;
+        String fileName = (flags & HAS_FILE_NAME) != 0 ? readString(in) : null;
+        long timestamp = in.getLong();
+        MessageWriter.PendingMessage m = new MessageWriter.PendingMessage(id, senderId, receiverId, groupId, content,
+                contentType, fileUrl, fileSize, fileName, timestamp, null, null);
+        m.journalSeq = seq;
+        return m;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
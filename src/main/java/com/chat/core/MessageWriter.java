@@ -0,0 +1,467 @@
+package com.chat.core;
+
+import com.chat.server.ServerConfig;
+import com.chat.utils.DatabaseManager;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 聊天消息异步落库（write-behind）
+ * - 发送线程只把消息放进有界队列（队列满时等待，形成背压），不占用数据库连接
+ * - 单个写线程把排队的消息合并成一条多行 INSERT ... VALUES (...),(...) 写入，
+ *   凑满 chat.persist.batchSize 条或等待超过 chat.persist.flushMillis 即写出
+ * - 写入完成后按提交顺序回调（参数为消息 ID，失败为 null），回调在写线程上执行，不能阻塞
+ * - 来自 MessageJournal 的消息与日志 checkpoint 在同一事务内写入；写库失败的处理见 write
+ * - awaitWritten：等待此前提交的消息全部处理完（离线消息同步前调用，避免漏掉还在队列中的消息）；
+ *   经过 MessageJournal 的消息在进入日志队列时就计数，还在写日志 / fsync 的也会等
+ */
+public class MessageWriter {
+
+    private static final String INSERT_PREFIX = "INSERT INTO message (id, sender_id, receiver_id, group_id, content, " +
+            "content_type, file_url, file_size, file_name, timestamp, is_read) VALUES ";
+    private static final String ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)";
+
+    // 数据类错误（超长、外键不存在等）无法入库的消息转入此表，原样保存日志记录的编码
+    private static final String CREATE_DEAD_LETTER_TABLE = "CREATE TABLE IF NOT EXISTS message_dead_letter (" +
+            "id BIGINT NOT NULL PRIMARY KEY, journal_seq BIGINT NOT NULL, error_code INT NOT NULL, " +
+            "error VARCHAR(512) NOT NULL, payload MEDIUMBLOB NOT NULL, " +
+            "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)";
+    private static final String INSERT_DEAD_LETTER = "INSERT IGNORE INTO message_dead_letter " +
+            "(id, journal_seq, error_code, error, payload) VALUES (?, ?, ?, ?, ?)";
+
+    // MySQL 错误码：主键重复、锁等待超时、死锁
+    private static final int ER_DUP_ENTRY = 1062;
+    private static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+    private static final int ER_LOCK_DEADLOCK = 1213;
+
+    // 日志消息持续重试时的最长间隔
+    private static final long RETRY_MAX_BACKOFF_MILLIS = 5000;
+
+    private static final BlockingQueue<PendingMessage> queue =
+            new ArrayBlockingQueue<>(Math.max(1, ServerConfig.PERSIST_QUEUE_CAPACITY));
+    private static Thread writer;
+    private static volatile boolean running;
+
+    // 已提交 / 已处理（写入或放弃）的消息数，队列先进先出，已处理数追上某一时刻的已提交数即说明此前的消息都已处理
+    private static final AtomicLong submitted = new AtomicLong();
+    private static final AtomicLong processed = new AtomicLong();
+    // awaitWritten 在登录线程（可能是虚拟线程）上等待，用 Condition 而不是对象监视器，不固定载体线程
+    private static final ReentrantLock processedLock = new ReentrantLock();
+    private static final Condition processedAdvanced = processedLock.newCondition();
+
+    /**
+     * 待写入的一条消息（私聊 receiverId 非空，群聊 groupId 非空）
+     */
+    public static final class PendingMessage {
+        final long id;
+        final Long senderId;
+        final Long receiverId;
+        final Long groupId;
+        final String content;
+        final String contentType;
+        final String fileUrl;
+        final Long fileSize;
+        final String fileName;
+        final long timestamp;
+        final Consumer<Boolean> onAccepted;
+        final Consumer<Long> callback;
+        long journalSeq;     // 日志序号，未写入日志为 0
+        boolean acked;
+        boolean stored;
+        boolean rejected;    // 数据无法入库，已转入 message_dead_letter
+
+        /**
+         * id：MessageIdGenerator 预先分配的消息 ID
+         * onAccepted：消息已持久化（写入日志或数据库）后回调一次，用于向发送方确认；callback：入库后回调消息 ID
+         */
+        public PendingMessage(long id, Long senderId, Long receiverId, Long groupId, String content, String contentType,
+                              String fileUrl, Long fileSize, String fileName, Long timestamp,
+                              Consumer<Boolean> onAccepted, Consumer<Long> callback) {
+            this.id = id;
+            this.senderId = senderId;
+            this.receiverId = receiverId;
+            this.groupId = groupId;
+            this.content = content;
+            this.contentType = contentType != null ? contentType : "text";
+            this.fileUrl = fileUrl;
+            this.fileSize = fileSize;
+            this.fileName = fileName;
+            this.timestamp = timestamp != null && timestamp > 0 ? timestamp : System.currentTimeMillis();
+            this.onAccepted = onAccepted;
+            this.callback = callback;
+        }
+
+        void accept(boolean success) {
+            acked = true;
+            if (onAccepted != null) {
+                onAccepted.accept(success);
+            }
+        }
+    }
+
+    public static synchronized void start() {
+        if (writer != null) {
+            return;
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_DEAD_LETTER_TABLE);
+        } catch (SQLException e) {
+            System.err.println("[PERSIST] 创建 message_dead_letter 表失败: " + e.getMessage());
+        }
+        running = true;
+        writer = new Thread(MessageWriter::writeLoop, "message-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 提交一条消息，队列满时等待
+     */
+    public static void submit(PendingMessage message) throws InterruptedException {
+        submitted.incrementAndGet();
+        try {
+            forward(message);
+        } catch (InterruptedException e) {
+            submitted.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 记一条已提交的消息：MessageJournal 在消息进入日志队列时调用，写入日志后再用 forward 交过来
+     */
+    static void countSubmitted(int n) {
+        submitted.addAndGet(n);
+    }
+
+    /**
+     * 放入写库队列（已经用 countSubmitted 计过数），队列满时等待
+     */
+    static void forward(PendingMessage message) throws InterruptedException {
+        if (writer == null) {
+            start();
+        }
+        queue.put(message);
+    }
+
+    /**
+     * 等待调用前提交的消息全部处理完，最多等待 timeoutMillis，返回是否已处理完
+     */
+    public static boolean awaitWritten(long timeoutMillis) throws InterruptedException {
+        long target = submitted.get();
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        processedLock.lock();
+        try {
+            while (processed.get() < target) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = processedAdvanced.awaitNanos(nanos);
+            }
+        } finally {
+            processedLock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * 停止写线程，已排队的消息全部写出后返回
+     */
+    public static void shutdown() {
+        Thread t;
+        synchronized (MessageWriter.class) {
+            t = writer;
+            running = false;
+        }
+        if (t == null) {
+            return;
+        }
+        try {
+            t.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeLoop() {
+        int batchSize = Math.max(1, ServerConfig.PERSIST_BATCH_SIZE);
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 在时间窗内继续收集，直到凑满一批
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ServerConfig.PERSIST_FLUSH_MILLIS);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long wait = deadline - System.nanoTime();
+                    PendingMessage next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queue.drainTo(batch);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                processedLock.lock();
+                try {
+                    processed.addAndGet(batch.size());
+                    processedAdvanced.signalAll();
+                } finally {
+                    processedLock.unlock();
+                }
+                batch.clear();
+            }
+        }
+        System.out.println("[PERSIST] 消息写线程已停止");
+    }
+
+    /**
+     * 写入一批消息，然后按顺序回调
+     */
+    private static void writeBatch(List<PendingMessage> batch) {
+        long startedAt = System.nanoTime();
+        write(batch);
+        int stored = 0;
+        for (PendingMessage m : batch) {
+            if (m.stored) {
+                stored++;
+            }
+        }
+        System.out.println("[PERSIST] 写入 " + stored + "/" + batch.size() + " 条消息，用时 "
+                + (System.nanoTime() - startedAt) / 1_000 + "us");
+
+        for (PendingMessage m : batch) {
+            try {
+                if (!m.acked) {
+                    m.accept(m.stored);
+                } else if (m.rejected && m.onAccepted != null) {
+                    // 已按日志确认过的消息最终无法入库：再通知发送方发送失败
+                    m.onAccepted.accept(false);
+                }
+                if (m.callback != null) {
+                    m.callback.accept(m.stored ? m.id : null);
+                }
+            } catch (Exception e) {
+                System.err.println("[PERSIST] 回调出错: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 写入一组消息，成功的标记 stored
+     * - 连接类（暂时性）错误重试：已写入日志的消息已向发送方确认，一直重试到成功或停机；其余重试 chat.persist.maxRetries 次
+     * - 数据类错误对半拆分重写，只有出错的那一条写不进去，不连累同批的其它消息
+     * - 单条消息主键重复说明已经入库（重放日志），按已写入处理
+     * - 单条消息的其它数据类错误重试也不会成功：转入 message_dead_letter，并让日志 checkpoint 越过它
+     * - 因暂时性错误（停机时）没写进去的日志消息留在日志中（checkpoint 停在它之前），重启后重放
+     */
+    private static void write(List<PendingMessage> rows) {
+        boolean journaled = journaled(rows);
+        SQLException error;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                insert(rows);
+                rows.forEach(m -> m.stored = true);
+                return;
+            } catch (SQLException e) {
+                error = e;
+                System.err.println("[PERSIST] 写入 " + rows.size() + " 条消息失败（第 " + (attempt + 1) + " 次）: "
+                        + e.getMessage());
+                if (!isTransient(e) || (attempt >= ServerConfig.PERSIST_MAX_RETRIES && !(journaled && running))) {
+                    break;
+                }
+                try {
+                    Thread.sleep(Math.min(RETRY_MAX_BACKOFF_MILLIS, 200L * (attempt + 1)));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        if (rows.size() > 1 && !isTransient(error)) {
+            int half = rows.size() / 2;
+            write(new ArrayList<>(rows.subList(0, half)));
+            write(new ArrayList<>(rows.subList(half, rows.size())));
+            return;
+        }
+        if (rows.size() == 1 && error.getErrorCode() == ER_DUP_ENTRY) {
+            PendingMessage m = rows.get(0);
+            m.stored = true;
+            if (journaled) {
+                MessageJournal.onCommitted(rows, 0);
+            }
+            return;
+        }
+        if (rows.size() == 1 && !isTransient(error) && deadLetter(rows.get(0), error)) {
+            return;
+        }
+        error.printStackTrace();
+        for (PendingMessage m : rows) {
+            System.err.println("[PERSIST] 消息 " + m.id + " 未入库"
+                    + (m.journalSeq > 0 ? "，保留在日志中（序号 " + m.journalSeq + "），重启后重放" : ""));
+        }
+    }
+
+    /**
+     * 把无法入库的消息写入 message_dead_letter；日志消息在同一事务内推进 checkpoint，之后不再重放
+     * 返回是否成功（失败时消息照旧留在日志中）
+     */
+    private static boolean deadLetter(PendingMessage m, SQLException error) {
+        boolean journaled = m.journalSeq > 0;
+        long checkpoint = 0;
+        String reason = String.valueOf(error.getMessage());
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(INSERT_DEAD_LETTER)) {
+                stmt.setLong(1, m.id);
+                stmt.setLong(2, m.journalSeq);
+                stmt.setInt(3, error.getErrorCode());
+                stmt.setString(4, reason.length() > 512 ? reason.substring(0, 512) : reason);
+                stmt.setBytes(5, MessageJournal.encode(m));
+                stmt.executeUpdate();
+                if (journaled) {
+                    checkpoint = MessageJournal.checkpointExcluding(List.of(m));
+                    MessageJournal.saveCheckpoint(conn, checkpoint);
+                }
+                conn.commit();
+            } catch (SQLException | IOException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException | IOException e) {
+            System.err.println("[PERSIST] 消息 " + m.id + " 转入 message_dead_letter 失败: " + e.getMessage());
+            return false;
+        }
+        if (journaled) {
+            MessageJournal.onCommitted(List.of(m), checkpoint);
+        }
+        m.rejected = true;
+        System.err.println("[PERSIST] 消息 " + m.id + " 无法入库（" + reason + "），已转入 message_dead_letter");
+        return true;
+    }
+
+    private static boolean journaled(List<PendingMessage> rows) {
+        for (PendingMessage m : rows) {
+            if (m.journalSeq > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 连接断开、超时、死锁等重试可能成功的错误
+     */
+    private static boolean isTransient(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientException || e instanceof SQLRecoverableException
+                || (state != null && (state.startsWith("08") || state.startsWith("40")))
+                || e.getErrorCode() == ER_LOCK_WAIT_TIMEOUT || e.getErrorCode() == ER_LOCK_DEADLOCK;
+    }
+
+    /**
+     * 一条多行 INSERT 写入一组消息（消息 ID 已预先分配）
+     * 含日志消息时在同一事务内推进日志 checkpoint（到连续入库的位置）
+     */
+    private static void insert(List<PendingMessage> batch) throws SQLException {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + batch.size() * (ROW.length() + 1));
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < batch.size(); i++) {
+            sql.append(i == 0 ? "" : ",").append(ROW);
+        }
+
+        boolean journaled = journaled(batch);
+        long checkpoint = 0;
+        try (Connection conn = DatabaseManager.getConnection()) {
+            if (journaled) {
+                conn.setAutoCommit(false);
+            }
+            try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                bind(stmt, batch);
+                stmt.executeUpdate();
+                if (journaled) {
+                    checkpoint = MessageJournal.checkpointExcluding(batch);
+                    MessageJournal.saveCheckpoint(conn, checkpoint);
+                    conn.commit();
+                }
+            } catch (SQLException e) {
+                if (journaled) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                if (journaled) {
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+        if (journaled) {
+            MessageJournal.onCommitted(batch, checkpoint);
+        }
+    }
+
+    private static void bind(PreparedStatement stmt, List<PendingMessage> batch) throws SQLException {
+        int p = 1;
+        for (PendingMessage m : batch) {
+            stmt.setLong(p++, m.id);
+            setLong(stmt, p++, m.senderId);
+            setLong(stmt, p++, m.receiverId);
+            setLong(stmt, p++, m.groupId);
+            stmt.setString(p++, m.content);
+            stmt.setString(p++, m.contentType);
+            setString(stmt, p++, m.fileUrl);
+            setLong(stmt, p++, m.fileSize != null && m.fileSize > 0 ? m.fileSize : null);
+            setString(stmt, p++, m.fileName);
+            stmt.setTimestamp(p++, new Timestamp(m.timestamp));
+        }
+    }
+
+    private static void setLong(PreparedStatement stmt, int index, Long value) throws SQLException {
+        if (value != null) {
+            stmt.setLong(index, value);
+        } else {
+            stmt.setNull(index, Types.BIGINT);
+        }
+    }
+
+    private static void setString(PreparedStatement stmt, int index, String value) throws SQLException {
+        if (value != null && !value.isEmpty()) {
+            stmt.setString(index, value);
+        } else {
+            stmt.setNull(index, Types.VARCHAR);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.chat.core;
+
+import com.chat.server.ServerConfig;
+import com.chat.utils.DatabaseManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已读游标 - 每个 (用户, 会话) 只记录已读到的最大消息 ID，代替逐行更新 message.is_read
+ * - 某条消息是否已读：消息 ID <= 接收方在该会话的游标；未读数：会话中 ID 大于游标且不是自己发的消息数
+ * - 游标只前进不后退；前进先记在内存，每 chat.readCursor.flushMillis 合并写入 message_read_cursor
+ *   （同一游标在一个周期内前进多次只写一次）
+ * - 读取时按用户整体加载并缓存，缓存的用户数超过 chat.readCursor.cachedUsers 时淘汰最久未访问的
+ */
+public class ReadCursorStore {
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS message_read_cursor (" +
+            "user_id BIGINT NOT NULL, " +
+            "conversation_key VARCHAR(48) CHARACTER SET ascii COLLATE ascii_bin NOT NULL, " +
+            "last_read_id BIGINT NOT NULL, " +
+            "PRIMARY KEY (user_id, conversation_key))";
+    private static final String UPSERT_PREFIX = "INSERT INTO message_read_cursor (user_id, conversation_key, last_read_id) VALUES ";
+    private static final String UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE last_read_id = GREATEST(last_read_id, VALUES(last_read_id))";
+
+    // 一条 INSERT 最多带的游标数（避免超过 max_allowed_packet 和占位符上限）
+    private static final int FLUSH_CHUNK = 500;
+
+    /**
+     * (用户, 会话)
+     */
+    private record CursorKey(long userId, String conversationKey) {}
+
+    // 已前进、尚未写入数据库的游标
+    private static final Map<CursorKey, Long> pending = new ConcurrentHashMap<>();
+
+    // 用户 -> (会话键 -> 已读到的消息 ID)，按访问顺序排列（LRU）
+    private static final Map<Long, Map<String, Long>> cursorsByUser = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Map<String, Long>> eldest) {
+            return size() > ServerConfig.READ_CURSOR_CACHED_USERS;
+        }
+    };
+
+    private static ScheduledExecutorService scheduler;
+
+    public static synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_TABLE);
+        } catch (SQLException e) {
+            System.err.println("[READ_CURSOR] 创建游标表失败: " + e.getMessage());
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "read-cursor-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, ServerConfig.READ_CURSOR_FLUSH_MILLIS);
+        scheduler.scheduleWithFixedDelay(ReadCursorStore::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时写入并写出剩余的游标
+     */
+    public static synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        flush();
+    }
+
+    /**
+     * 用户在会话中已读到的消息 ID，没有记录时为 0
+     */
+    public static long getLastReadId(long userId, String conversationKey) {
+        Long cached = cursors(userId).get(conversationKey);
+        Long unsaved = pending.get(new CursorKey(userId, conversationKey));
+        return Math.max(cached != null ? cached : 0, unsaved != null ? unsaved : 0);
+    }
+
+    /**
+     * 用户的全部游标（会话键 -> 已读到的消息 ID，只读快照）
+     */
+    public static Map<String, Long> getCursors(long userId) {
+        Map<String, Long> snapshot = new HashMap<>(cursors(userId));
+        pending.forEach((key, id) -> {
+            if (key.userId() == userId) {
+                snapshot.merge(key.conversationKey(), id, Math::max);
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * 游标前进到 messageId（不会后退），返回是否前进
+     */
+    public static boolean advance(long userId, String conversationKey, long messageId) {
+        if (messageId <= getLastReadId(userId, conversationKey)) {
+            return false;
+        }
+        pending.merge(new CursorKey(userId, conversationKey), messageId, Math::max);
+        Map<String, Long> cached;
+        synchronized (cursorsByUser) {
+            cached = cursorsByUser.get(userId);
+        }
+        if (cached != null) {
+            cached.merge(conversationKey, messageId, Math::max);
+        }
+        return true;
+    }
+
+    /**
+     * 把内存中前进过的游标合并写入数据库（多行 INSERT ... ON DUPLICATE KEY UPDATE，每条最多 FLUSH_CHUNK 个）
+     */
+    public static void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<CursorKey, Long>> all = new ArrayList<>();
+        pending.forEach((key, id) -> all.add(Map.entry(key, id)));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            for (int from = 0; from < all.size(); from += FLUSH_CHUNK) {
+                List<Map.Entry<CursorKey, Long>> batch = all.subList(from, Math.min(all.size(), from + FLUSH_CHUNK));
+                try {
+                    upsert(conn, batch);
+                } catch (SQLException e) {
+                    System.err.println("[READ_CURSOR] 写入 " + batch.size() + " 个游标失败，下次重试: " + e.getMessage());
+                    continue;
+                }
+                // 写入期间又前进过的游标留到下一次
+                for (Map.Entry<CursorKey, Long> e : batch) {
+                    pending.remove(e.getKey(), e.getValue());
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("[READ_CURSOR] 写入 " + all.size() + " 个游标失败，下次重试: " + e.getMessage());
+        }
+    }
+
+    private static void upsert(Connection conn, List<Map.Entry<CursorKey, Long>> batch) throws SQLException {
+        StringBuilder sql = new StringBuilder(UPSERT_PREFIX);
+        for (int i = 0; i < batch.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ",(?, ?, ?)");
+        }
+        sql.append(UPSERT_SUFFIX);
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            for (Map.Entry<CursorKey, Long> e : batch) {
+                stmt.setLong(p++, e.getKey().userId());
+                stmt.setString(p++, e.getKey().conversationKey());
+                stmt.setLong(p++, e.getValue());
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 用户的游标（首次访问时从数据库加载）
+     */
+    private static Map<String, Long> cursors(long userId) {
+        Map<String, Long> cached;
+        synchronized (cursorsByUser) {
+            cached = cursorsByUser.get(userId);
+        }
+        if (cached != null) {
+            return cached;
+        }
+        Map<String, Long> loaded = new ConcurrentHashMap<>();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                     "SELECT conversation_key, last_read_id FROM message_read_cursor WHERE user_id = ?")) {
+            stmt.setLong(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    loaded.put(rs.getString(1), rs.getLong(2));
+                }
+            }
+        } catch (SQLException e) {
+            // 加载失败不缓存，下次再试
+            System.err.println("[READ_CURSOR] 加载用户 " + userId + " 的游标失败: " + e.getMessage());
+            return loaded;
+        }
+        synchronized (cursorsByUser) {
+            return Objects.requireNonNullElseGet(cursorsByUser.putIfAbsent(userId, loaded), () -> loaded);
+        }
+    }
+}
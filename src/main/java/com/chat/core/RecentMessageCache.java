@@ -0,0 +1,297 @@
+package com.chat.core;
+
+import com.chat.protocol.ChatHistoryResponse;
+import com.chat.server.ServerConfig;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 最近消息缓存 - 每个会话在内存中保留最新的 chat.history.recentSize 条消息（环形，按消息 ID 排序）
+ * - 发送消息时写入（ChatService 在消息交给日志/写库线程之前，入库失败时再移除），打开会话拉第一页历史时直接从内存返回
+ * - 环里的消息是会话最新的连续一段；更早的消息可能只在数据库中，凑不满一页时交给 SQL 查询，
+ *   查询结果再回填到环里（与环中已有消息按 ID 合并）
+ * - 已读状态不在环里保存，由 ChatService 按 ReadCursorStore 的游标填写
+ * - 会话数超过 chat.history.recentConversations、或估算占用超过 chat.history.recentBytes 时淘汰最久未访问的会话
+ */
+public class RecentMessageCache {
+
+    private static final DateTimeFormatter DATETIME_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    // 条目固定开销的估算（对象头、字段、队列槽位）
+    private static final int ITEM_OVERHEAD_BYTES = 200;
+
+    // 会话键（见 ChatService.privateConversationKey / groupConversationKey）-> 环，按访问顺序排列（LRU），由自身加锁
+    private static final Map<String, Ring> rings = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+            if (size() > ServerConfig.HISTORY_RECENT_CONVERSATIONS) {
+                release(eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    // 所有环中消息的估算字节数
+    private static final AtomicLong totalBytes = new AtomicLong();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    /**
+     * 一个会话的最近消息
+     */
+    private static final class Ring {
+        final ArrayDeque<ChatHistoryResponse.HistoryMessageItem> items = new ArrayDeque<>();
+        // 数据库中是否可能还有比环里最早一条更早的消息
+        boolean hasOlder = true;
+        // 环中消息的估算字节数；已淘汰的环不再接收消息
+        long bytes;
+        boolean evicted;
+    }
+
+    /**
+     * 发送时记录一条消息
+     */
+    static void record(MessageWriter.PendingMessage m) {
+        if (ServerConfig.HISTORY_RECENT_SIZE <= 0) {
+            return;
+        }
+        String key = m.groupId != null ? ChatService.groupConversationKey(m.groupId)
+                : ChatService.privateConversationKey(m.senderId, m.receiverId);
+        ChatHistoryResponse.HistoryMessageItem item = new ChatHistoryResponse.HistoryMessageItem();
+        item.setId(m.id);
+        item.setSenderId(m.senderId);
+        item.setReceiverId(m.receiverId);
+        item.setGroupId(m.groupId);
+        item.setContent(m.content);
+        item.setContentType(m.contentType);
+        item.setFileUrl(m.fileUrl);
+        item.setFileSize(m.fileSize);
+        item.setFileName(m.fileName);
+        item.setTimestamp(DATETIME_FORMATTER.format(Instant.ofEpochMilli(m.timestamp)));
+
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.computeIfAbsent(key, k -> new Ring());
+        }
+        synchronized (ring) {
+            add(ring, item);
+        }
+        evictOverBudget();
+    }
+
+    /**
+     * 移除一条消息（入库失败时调用，避免历史里出现数据库中没有的消息）
+     */
+    static void remove(String key, long messageId) {
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.get(key);
+        }
+        if (ring == null) {
+            return;
+        }
+        synchronized (ring) {
+            Iterator<ChatHistoryResponse.HistoryMessageItem> it = ring.items.iterator();
+            while (it.hasNext()) {
+                ChatHistoryResponse.HistoryMessageItem item = it.next();
+                if (item.getId() == messageId) {
+                    it.remove();
+                    account(ring, -estimatedBytes(item));
+                }
+            }
+        }
+    }
+
+    /**
+     * 从内存取一页历史（ID 小于 beforeId 的最新 limit 条，按 ID 从新到旧）；内存中凑不满时返回 null
+     */
+    static List<ChatHistoryResponse.HistoryMessageItem> page(String key, Long beforeId, int limit) {
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.get(key);
+        }
+        if (ring != null) {
+            synchronized (ring) {
+                List<ChatHistoryResponse.HistoryMessageItem> page = new ArrayList<>(limit);
+                Iterator<ChatHistoryResponse.HistoryMessageItem> it = ring.items.descendingIterator();
+                while (it.hasNext() && page.size() < limit) {
+                    ChatHistoryResponse.HistoryMessageItem item = it.next();
+                    if (beforeId == null || item.getId() < beforeId) {
+                        page.add(item);
+                    }
+                }
+                if (page.size() == limit || !ring.hasOlder) {
+                    hits.increment();
+                    return page;
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 回填数据库查询到的最新一页（按 ID 从新到旧）；requested 为查询的条数，结果不足说明会话没有更早的消息
+     */
+    static void fill(String key, List<ChatHistoryResponse.HistoryMessageItem> latest, int requested) {
+        int capacity = ServerConfig.HISTORY_RECENT_SIZE;
+        if (capacity <= 0) {
+            return;
+        }
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.computeIfAbsent(key, k -> new Ring());
+        }
+        synchronized (ring) {
+            for (ChatHistoryResponse.HistoryMessageItem item : latest) {
+                add(ring, item);
+            }
+            if (latest.size() < requested && ring.items.size() < capacity) {
+                ring.hasOlder = false;
+            }
+        }
+        evictOverBudget();
+    }
+
+    /**
+     * 内存中会话最新一条消息的 ID，没有时为 0
+     */
+    static long latestId(String key) {
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.get(key);
+        }
+        if (ring == null) {
+            return 0;
+        }
+        synchronized (ring) {
+            ChatHistoryResponse.HistoryMessageItem last = ring.items.peekLast();
+            return last != null ? last.getId() : 0;
+        }
+    }
+
+    /**
+     * 内存中 ID 大于 afterId、不是 userId 发的消息数；环里不能确定包含 afterId 之后的全部消息时返回 -1
+     */
+    static int countAfter(String key, long afterId, long userId) {
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.get(key);
+        }
+        if (ring == null) {
+            return -1;
+        }
+        synchronized (ring) {
+            ChatHistoryResponse.HistoryMessageItem first = ring.items.peekFirst();
+            if (ring.hasOlder && (first == null || first.getId() > afterId)) {
+                return -1;
+            }
+            int count = 0;
+            Iterator<ChatHistoryResponse.HistoryMessageItem> it = ring.items.descendingIterator();
+            while (it.hasNext()) {
+                ChatHistoryResponse.HistoryMessageItem item = it.next();
+                if (item.getId() <= afterId) {
+                    break;
+                }
+                if (item.getSenderId() == null || item.getSenderId() != userId) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 按 ID 顺序插入（通常追加在末尾），已有的 ID 忽略；超出容量时丢弃最早的一条（调用方持有环的锁）
+     */
+    private static void add(Ring ring, ChatHistoryResponse.HistoryMessageItem item) {
+        if (ring.evicted) {
+            return;
+        }
+        ArrayDeque<ChatHistoryResponse.HistoryMessageItem> items = ring.items;
+        ChatHistoryResponse.HistoryMessageItem last = items.peekLast();
+        if (last == null || last.getId() < item.getId()) {
+            items.addLast(item);
+        } else {
+            // 并发发送造成的乱序（少见）：重新排列
+            List<ChatHistoryResponse.HistoryMessageItem> sorted = new ArrayList<>(items);
+            for (ChatHistoryResponse.HistoryMessageItem existing : sorted) {
+                if (existing.getId().equals(item.getId())) {
+                    return;
+                }
+            }
+            sorted.add(item);
+            sorted.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+            items.clear();
+            items.addAll(sorted);
+        }
+        account(ring, estimatedBytes(item));
+        if (items.size() > ServerConfig.HISTORY_RECENT_SIZE) {
+            account(ring, -estimatedBytes(items.pollFirst()));
+            ring.hasOlder = true;
+        }
+    }
+
+    private static void account(Ring ring, long delta) {
+        ring.bytes += delta;
+        totalBytes.addAndGet(delta);
+    }
+
+    /**
+     * 估算占用超过 chat.history.recentBytes 时从最久未访问的会话开始淘汰
+     */
+    private static void evictOverBudget() {
+        if (totalBytes.get() <= ServerConfig.HISTORY_RECENT_BYTES) {
+            return;
+        }
+        synchronized (rings) {
+            Iterator<Ring> it = rings.values().iterator();
+            while (totalBytes.get() > ServerConfig.HISTORY_RECENT_BYTES && it.hasNext()) {
+                Ring ring = it.next();
+                it.remove();
+                release(ring);
+            }
+        }
+    }
+
+    /**
+     * 环被移出缓存：扣除其占用，之后不再接收消息（持有 rings 的锁时调用）
+     */
+    private static void release(Ring ring) {
+        synchronized (ring) {
+            ring.evicted = true;
+            totalBytes.addAndGet(-ring.bytes);
+            ring.bytes = 0;
+        }
+    }
+
+    private static long estimatedBytes(ChatHistoryResponse.HistoryMessageItem item) {
+        return ITEM_OVERHEAD_BYTES + chars(item.getContent()) + chars(item.getContentType())
+                + chars(item.getFileUrl()) + chars(item.getFileName()) + chars(item.getTimestamp());
+    }
+
+    private static int chars(String s) {
+        return s != null ? 40 + s.length() * 2 : 0;
+    }
+
+    public static long getHits() {
+        return hits.sum();
+    }
+
+    public static long getMisses() {
+        return misses.sum();
+    }
+}
@@ -0,0 +1,297 @@
+package com.chat.core;
+
+import com.chat.server.ServerConfig;
+import com.chat.utils.DatabaseManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 未读计数 - 每个 (用户, 会话) 的未读消息数常驻内存，角标直接读取，不再 COUNT(*)
+ * - 私聊：发送消息时给接收方加一
+ * - 群聊：每个群会话一个消息计数头（head），成员的未读数 = head - 该成员的基准（base），
+ *   发送一条群消息只把 head 加一、发送者的 base 加一，与成员数无关；入群时 base 设为当前 head
+ * - 已读游标前进后由 ChatService 重新设置（群聊换算为 base）
+ * - 每 chat.unread.flushMillis 把变化过的计数写入 message_unread_counter（归零的删除，每条语句最多 FLUSH_CHUNK 行），
+ *   有新消息的群在写入时才展开到全部成员；启动时整表加载
+ */
+public class UnreadCounterStore {
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS message_unread_counter (" +
+            "user_id BIGINT NOT NULL, " +
+            "conversation_key VARCHAR(48) CHARACTER SET ascii COLLATE ascii_bin NOT NULL, " +
+            "unread_count INT NOT NULL, " +
+            "PRIMARY KEY (user_id, conversation_key))";
+    private static final String UPSERT_PREFIX = "INSERT INTO message_unread_counter (user_id, conversation_key, unread_count) VALUES ";
+    private static final String UPSERT_SUFFIX = " ON DUPLICATE KEY UPDATE unread_count = VALUES(unread_count)";
+    private static final String DELETE_PREFIX = "DELETE FROM message_unread_counter WHERE (user_id, conversation_key) IN (";
+
+    // 一条 INSERT / DELETE 最多带的行数（避免超过 max_allowed_packet 和占位符上限）
+    private static final int FLUSH_CHUNK = 500;
+
+    private static final String GROUP_KEY_PREFIX = "g:";
+
+    /**
+     * (用户, 会话)
+     */
+    private record CounterKey(long userId, String conversationKey) {}
+
+    // 私聊：用户 -> (会话键 -> 未读数)，只保存非零的计数
+    private static final Map<Long, Map<String, Integer>> countersByUser = new ConcurrentHashMap<>();
+
+    // 群聊：会话键 -> 启动以来的消息数；用户 -> (会话键 -> 基准)，没有记录的成员基准为 0
+    private static final Map<String, AtomicLong> groupHeads = new ConcurrentHashMap<>();
+    private static final Map<Long, Map<String, Long>> groupBasesByUser = new ConcurrentHashMap<>();
+
+    // 变化过、尚未写入数据库的计数；有新消息、全部成员的计数都变化过的群会话
+    private static final Map<CounterKey, Boolean> dirty = new ConcurrentHashMap<>();
+    private static final Map<String, Boolean> dirtyGroups = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService scheduler;
+
+    /**
+     * 建表并从数据库加载全部计数，然后开始定时写入
+     */
+    public static synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        int loaded = 0;
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(CREATE_TABLE);
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT user_id, conversation_key, unread_count FROM message_unread_counter WHERE unread_count > 0")) {
+                while (rs.next()) {
+                    String key = rs.getString(2);
+                    if (isGroup(key)) {
+                        // 启动时 head 为 0
+                        groupBasesByUser.computeIfAbsent(rs.getLong(1), k -> new ConcurrentHashMap<>())
+                                .put(key, -(long) rs.getInt(3));
+                    } else {
+                        countersByUser.computeIfAbsent(rs.getLong(1), k -> new ConcurrentHashMap<>())
+                                .put(key, rs.getInt(3));
+                    }
+                    loaded++;
+                }
+            }
+            System.out.println("[UNREAD] 加载 " + loaded + " 个未读计数");
+        } catch (SQLException e) {
+            System.err.println("[UNREAD] 加载未读计数失败: " + e.getMessage());
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "unread-counter-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, ServerConfig.UNREAD_FLUSH_MILLIS);
+        scheduler.scheduleWithFixedDelay(UnreadCounterStore::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时写入并写出剩余的计数
+     */
+    public static synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+        flush();
+    }
+
+    /**
+     * 用户在会话中的未读数
+     */
+    public static int get(long userId, String conversationKey) {
+        if (isGroup(conversationKey)) {
+            AtomicLong head = groupHeads.get(conversationKey);
+            long unread = (head != null ? head.get() : 0) - groupBase(userId, conversationKey);
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, unread));
+        }
+        Map<String, Integer> counters = countersByUser.get(userId);
+        if (counters == null) {
+            return 0;
+        }
+        return counters.getOrDefault(conversationKey, 0);
+    }
+
+    /**
+     * 用户所有私聊会话的未读数之和
+     */
+    public static int totalPrivate(long userId) {
+        Map<String, Integer> counters = countersByUser.get(userId);
+        if (counters == null) {
+            return 0;
+        }
+        int total = 0;
+        for (Map.Entry<String, Integer> e : counters.entrySet()) {
+            if (e.getKey().startsWith("p:")) {
+                total += e.getValue();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 会话收到一条新消息：接收方未读数加一
+     */
+    public static void increment(long userId, String conversationKey) {
+        countersByUser.computeIfAbsent(userId, k -> new ConcurrentHashMap<>())
+                .merge(conversationKey, 1, Integer::sum);
+        dirty.put(new CounterKey(userId, conversationKey), Boolean.TRUE);
+    }
+
+    /**
+     * 群会话收到一条新消息：发送者以外的成员未读数加一（head 加一，发送者的 base 同时加一）
+     */
+    public static void incrementGroup(String conversationKey, long senderId) {
+        groupBasesByUser.computeIfAbsent(senderId, k -> new ConcurrentHashMap<>())
+                .merge(conversationKey, 1L, Long::sum);
+        groupHeads.computeIfAbsent(conversationKey, k -> new AtomicLong()).incrementAndGet();
+        dirtyGroups.put(conversationKey, Boolean.TRUE);
+    }
+
+    /**
+     * 用户入群：入群前的消息不算未读
+     */
+    public static void onJoinedGroup(long userId, String conversationKey) {
+        set(userId, conversationKey, 0);
+    }
+
+    /**
+     * 设置未读数（已读游标前进后按游标重新计算的结果）
+     */
+    public static void set(long userId, String conversationKey, int count) {
+        if (isGroup(conversationKey)) {
+            AtomicLong head = groupHeads.get(conversationKey);
+            groupBasesByUser.computeIfAbsent(userId, k -> new ConcurrentHashMap<>())
+                    .put(conversationKey, (head != null ? head.get() : 0) - Math.max(0, count));
+        } else if (count > 0) {
+            countersByUser.computeIfAbsent(userId, k -> new ConcurrentHashMap<>()).put(conversationKey, count);
+        } else {
+            Map<String, Integer> counters = countersByUser.get(userId);
+            if (counters == null || counters.remove(conversationKey) == null) {
+                return;
+            }
+        }
+        dirty.put(new CounterKey(userId, conversationKey), Boolean.TRUE);
+    }
+
+    /**
+     * 把变化过的计数写入数据库：非零的写成多行 INSERT ... ON DUPLICATE KEY UPDATE，归零的删除，每条语句最多 FLUSH_CHUNK 行
+     */
+    public static void flush() {
+        if (dirty.isEmpty() && dirtyGroups.isEmpty()) {
+            return;
+        }
+        List<String> groups = new ArrayList<>(dirtyGroups.keySet());
+        groups.forEach(dirtyGroups::remove);
+        Set<CounterKey> keys = new HashSet<>(dirty.keySet());
+        keys.forEach(dirty::remove);
+        for (String conversationKey : groups) {
+            try {
+                GroupMembershipCache.getMemberBitmap(Long.parseLong(conversationKey.substring(GROUP_KEY_PREFIX.length())))
+                        .forEach(memberId -> keys.add(new CounterKey(memberId, conversationKey)));
+            } catch (SQLException e) {
+                dirtyGroups.put(conversationKey, Boolean.TRUE);
+                System.err.println("[UNREAD] 读取 " + conversationKey + " 的成员失败，下次重试: " + e.getMessage());
+            }
+        }
+
+        List<Map.Entry<CounterKey, Integer>> nonZero = new ArrayList<>();
+        List<CounterKey> zero = new ArrayList<>();
+        for (CounterKey key : keys) {
+            int count = get(key.userId(), key.conversationKey());
+            if (count > 0) {
+                nonZero.add(Map.entry(key, count));
+            } else {
+                zero.add(key);
+            }
+        }
+
+        List<CounterKey> failed = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            for (int from = 0; from < nonZero.size(); from += FLUSH_CHUNK) {
+                List<Map.Entry<CounterKey, Integer>> chunk = nonZero.subList(from, Math.min(nonZero.size(), from + FLUSH_CHUNK));
+                try {
+                    upsert(conn, chunk);
+                } catch (SQLException e) {
+                    chunk.forEach(entry -> failed.add(entry.getKey()));
+                    System.err.println("[UNREAD] 写入 " + chunk.size() + " 个未读计数失败，下次重试: " + e.getMessage());
+                }
+            }
+            for (int from = 0; from < zero.size(); from += FLUSH_CHUNK) {
+                List<CounterKey> chunk = zero.subList(from, Math.min(zero.size(), from + FLUSH_CHUNK));
+                try {
+                    delete(conn, chunk);
+                } catch (SQLException e) {
+                    failed.addAll(chunk);
+                    System.err.println("[UNREAD] 删除 " + chunk.size() + " 个未读计数失败，下次重试: " + e.getMessage());
+                }
+            }
+        } catch (SQLException e) {
+            failed.addAll(keys);
+            System.err.println("[UNREAD] 写入 " + keys.size() + " 个未读计数失败，下次重试: " + e.getMessage());
+        }
+        // 写入失败的计数重新标记，下次再写
+        failed.forEach(key -> dirty.put(key, Boolean.TRUE));
+    }
+
+    private static void upsert(Connection conn, List<Map.Entry<CounterKey, Integer>> rows) throws SQLException {
+        StringBuilder sql = new StringBuilder(UPSERT_PREFIX);
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ",(?, ?, ?)");
+        }
+        sql.append(UPSERT_SUFFIX);
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            for (Map.Entry<CounterKey, Integer> e : rows) {
+                stmt.setLong(p++, e.getKey().userId());
+                stmt.setString(p++, e.getKey().conversationKey());
+                stmt.setInt(p++, e.getValue());
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void delete(Connection conn, List<CounterKey> rows) throws SQLException {
+        StringBuilder sql = new StringBuilder(DELETE_PREFIX);
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "(?, ?)" : ",(?, ?)");
+        }
+        sql.append(")");
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            for (CounterKey key : rows) {
+                stmt.setLong(p++, key.userId());
+                stmt.setString(p++, key.conversationKey());
+            }
+            stmt.executeUpdate();
+        }
+    }
+
+    private static long groupBase(long userId, String conversationKey) {
+        Map<String, Long> bases = groupBasesByUser.get(userId);
+        if (bases == null) {
+            return 0;
+        }
+        return bases.getOrDefault(conversationKey, 0L);
+    }
+
+    private static boolean isGroup(String conversationKey) {
+        return conversationKey.startsWith(GROUP_KEY_PREFIX);
+    }
+}
@@ -0,0 +1,160 @@
+package com.chat.core;
+
+import com.chat.server.ServerConfig;
+import com.chat.utils.DatabaseManager;
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户资料缓存 - uid -> 用户名、头像、性别、生日、电话，代替每次 user_auth JOIN user_profile
+ * - 列表接口一次取一批 uid，未缓存的合并成一条 WHERE uid IN (...) 查询
+ * - 按估算的字节数限制大小（chat.profile.cacheBytes），超过时淘汰最久未访问的；
+ *   缓存超过 chat.profile.ttlMillis 的条目视为未缓存（其它途径改库后最多延迟这么久）
+ * - UserService.updateUserProfile 提交后调用 invalidate
+ */
+public class UserProfileCache {
+
+    private static final String SELECT_PREFIX = "SELECT u.uid, u.username, p.avatar_url, p.gender, p.birthday, p.tele " +
+            "FROM user_auth u LEFT JOIN user_profile p ON u.uid = p.user_id WHERE u.uid IN (";
+
+    // 一条 IN 查询最多带的 uid 数
+    private static final int BATCH_SIZE = 500;
+
+    // 条目固定开销的估算（对象头、字段、Map 节点）
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    /**
+     * 一个用户的资料（不可变）；gender 没有资料时为 0，birthday 为 yyyy-MM-dd 或 null
+     */
+    public record Profile(long uid, String username, String avatarUrl, int gender, String birthday, String tele,
+                          long loadedAt) {
+
+        int estimatedBytes() {
+            return ENTRY_OVERHEAD_BYTES + chars(username) + chars(avatarUrl) + chars(birthday) + chars(tele);
+        }
+
+        private static int chars(String s) {
+            return s != null ? 40 + s.length() * 2 : 0;
+        }
+    }
+
+    // uid -> 资料，按访问顺序排列（LRU），由自身加锁
+    private static final LinkedHashMap<Long, Profile> profiles = new LinkedHashMap<>(1024, 0.75f, true);
+    private static long totalBytes;
+
+    // 失效计数：加载期间有失效时不把加载结果放进缓存（可能已过期）
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * 单个用户的资料，用户不存在时返回 null
+     */
+    public static Profile get(long uid) throws SQLException {
+        return getAll(List.of(uid)).get(uid);
+    }
+
+    /**
+     * 一批用户的资料（uid -> 资料，不存在的用户不在结果中）
+     */
+    public static Map<Long, Profile> getAll(Collection<Long> uids) throws SQLException {
+        Map<Long, Profile> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (profiles) {
+            for (Long uid : new LinkedHashSet<>(uids)) {
+                if (uid == null) {
+                    continue;
+                }
+                Profile profile = profiles.get(uid);
+                if (profile != null && now - profile.loadedAt() <= ServerConfig.PROFILE_TTL_MILLIS) {
+                    result.put(uid, profile);
+                } else {
+                    missing.add(uid);
+                }
+            }
+        }
+        for (int from = 0; from < missing.size(); from += BATCH_SIZE) {
+            List<Long> batch = missing.subList(from, Math.min(missing.size(), from + BATCH_SIZE));
+            long version = invalidations.get();
+            List<Profile> loaded = load(batch);
+            for (Profile profile : loaded) {
+                result.put(profile.uid(), profile);
+            }
+            if (invalidations.get() == version) {
+                synchronized (profiles) {
+                    loaded.forEach(UserProfileCache::put);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 用户资料（含用户名）已修改，下次访问时重新加载
+     */
+    public static void invalidate(long uid) {
+        invalidations.incrementAndGet();
+        synchronized (profiles) {
+            Profile removed = profiles.remove(uid);
+            if (removed != null) {
+                totalBytes -= removed.estimatedBytes();
+            }
+        }
+    }
+
+    private static void put(Profile profile) {
+        Profile old = profiles.put(profile.uid(), profile);
+        if (old != null) {
+            totalBytes -= old.estimatedBytes();
+        }
+        totalBytes += profile.estimatedBytes();
+        Iterator<Profile> it = profiles.values().iterator();
+        while (totalBytes > ServerConfig.PROFILE_CACHE_BYTES && it.hasNext()) {
+            totalBytes -= it.next().estimatedBytes();
+            it.remove();
+        }
+    }
+
+    private static List<Profile> load(List<Long> uids) throws SQLException {
+        StringBuilder sql = new StringBuilder(SELECT_PREFIX);
+        for (int i = 0; i < uids.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(")");
+
+        List<Profile> loaded = new ArrayList<>(uids.size());
+        long now = System.currentTimeMillis();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < uids.size(); i++) {
+                stmt.setLong(i + 1, uids.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Date birthday = rs.getDate("birthday");
+                    loaded.add(new Profile(
+                            rs.getLong("uid"),
+                            rs.getString("username"),
+                            rs.getString("avatar_url"),
+                            rs.getInt("gender"),
+                            birthday != null ? birthday.toString() : null,
+                            rs.getString("tele"),
+                            now));
+                }
+            }
+        }
+        return loaded;
+    }
+}
@@ -20,30 +20,17 @@ public class UserService {
             return null;
         }
 
-        String sql = "SELECT u.uid, u.username, p.avatar_url, p.gender, p.birthday, p.tele " +
-                "FROM user_auth u LEFT JOIN user_profile p ON u.uid = p.user_id " +
-                "WHERE u.uid = ?";
-
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, userId);
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    UserProfile profile = new UserProfile();
-                    profile.setUid(rs.getLong("uid"));
-                    profile.setUsername(rs.getString("username"));
-                    profile.setAvatarUrl(rs.getString("avatar_url"));
-                    profile.setGender(rs.getInt("gender"));
-
-                    // 处理生日日期
-                    java.sql.Date birthday = rs.getDate("birthday");
-                    if (birthday != null) {
-                        profile.setBirthday(birthday.toString());
-                    }
-
-                    profile.setTele(rs.getString("tele"));
-                    return profile;
-                }
+        try {
+            UserProfileCache.Profile cached = UserProfileCache.get(userId);
+            if (cached != null) {
+                UserProfile profile = new UserProfile();
+                profile.setUid(cached.uid());
+                profile.setUsername(cached.username());
+                profile.setAvatarUrl(cached.avatarUrl());
+                profile.setGender(cached.gender());
+                profile.setBirthday(cached.birthday());
+                profile.setTele(cached.tele());
+                return profile;
             }
         } catch (SQLException e) {
             System.err.println("[USER_PROFILE] SQL error: " + e.getMessage());
@@ -172,6 +159,7 @@ public class UserService {
             }
 
             conn.commit();
+            UserProfileCache.invalidate(profile.getUid());
             return true;
 
         } catch (SQLException e) {
@@ -1,21 +1,25 @@
 package com.chat.handler;
 
 import com.chat.core.ChatService;
+import com.chat.core.GroupMembershipCache;
 import com.chat.core.GroupService;
+import com.chat.core.UnreadCounterStore;
 import com.chat.protocol.ChatGroupReceive;
 import com.chat.protocol.ChatGroupSend;
+import com.chat.server.FanoutEngine;
+import com.chat.server.OutboundMessage;
+import com.chat.utils.MessageIdGenerator;
 import com.chat.utils.OnlineUserManager;
-import com.google.gson.Gson;
+import com.chat.utils.UserIdBitmap;
 
-import java.io.PrintWriter;
-import java.util.List;
+import java.sql.SQLException;
+import java.util.function.Consumer;
 
 /**
  * 群聊消息处理器
  */
 public class ChatGroupHandler {
 
-    private final Gson gson = new Gson();
     private final ChatService chatService;
     private final GroupService groupService;
 
@@ -25,9 +29,9 @@ public class ChatGroupHandler {
     }
 
     /**
-     * 处理群聊消息发送
+     * 处理群聊消息发送，消息持久化后回调 onAccepted（返回 false 时不会回调）
      */
-    public boolean handle(ChatGroupSend chatRequest) {
+    public boolean handle(ChatGroupSend chatRequest, Consumer<Boolean> onAccepted) {
         if (chatRequest == null) return false;
 
         Long fromUserId = chatRequest.getFromUserId();
@@ -39,6 +43,12 @@ public class ChatGroupHandler {
             System.out.println("[GROUP_CHAT] 无效的消息字段：fromUserId/groupId/content 不能为空");
             return false;
         }
+        String invalid = ChatService.validateMessage(content, contentType, chatRequest.getFileUrl(),
+                chatRequest.getFileSize(), chatRequest.getFileName());
+        if (invalid != null) {
+            System.out.println("[GROUP_CHAT] 拒绝无法入库的消息，群组 " + groupId + "，用户 " + fromUserId + ": " + invalid);
+            return false;
+        }
 
         // 检查用户是否在群组中
         if (!groupService.isUserInGroup(fromUserId, groupId)) {
@@ -46,10 +56,22 @@ public class ChatGroupHandler {
             return false;
         }
 
-        // 保存消息到数据库
-        Long messageId = chatService.saveGroupMessage(chatRequest);
-        if (messageId == null) {
-            System.out.println("[GROUP_CHAT] 保存群聊消息失败");
+        if (chatRequest.getTimestamp() <= 0) {
+            chatRequest.setTimestamp(System.currentTimeMillis());
+        }
+
+        // 消息 ID 在内存中分配，广播与落库并行
+        long messageId = MessageIdGenerator.nextId();
+
+        // 保存消息到数据库（先写日志，再异步批量入库）
+        try {
+            chatService.saveGroupMessageAsync(messageId, chatRequest, onAccepted, storedId -> {
+                if (storedId == null) {
+                    System.out.println("[GROUP_CHAT] 保存群聊消息失败，ID: " + messageId);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return false;
         }
 
@@ -63,26 +85,25 @@ public class ChatGroupHandler {
 
     /**
      * 向群组所有在线成员广播消息
+     * 接收消息对所有成员都相同：只创建一次、每种帧格式只编码一次，所有在线成员共享同一份字节
+     * 群成员位图与在线用户位图求交集后只推送在线成员；大群由 FanoutEngine 分片并行推送，本方法不等待推送完成
      */
     private void broadcastToGroupMembers(Long groupId, Long fromUserId,
                                          ChatGroupSend originalMessage, Long messageId) {
         // 获取群组所有成员
-        List<Long> memberIds = chatService.getGroupMembers(groupId);
-
-        for (Long memberId : memberIds) {
-            // 不向发送者自己发送（可选，根据需求调整）
-            if (memberId.equals(fromUserId)) {
-                continue;
-            }
-
-            // 向在线成员发送消息
-            PrintWriter memberOut = OnlineUserManager.getUserOutput(memberId);
-            if (memberOut != null) {
-                ChatGroupReceive receiveMsg = createReceiveMessage(originalMessage, messageId);
-                memberOut.println(gson.toJson(receiveMsg));
-                System.out.println("[GROUP_CHAT] 向用户 " + memberId + " 发送群组消息");
-            }
+        UserIdBitmap members;
+        try {
+            members = GroupMembershipCache.getMemberBitmap(groupId);
+        } catch (SQLException e) {
+            System.err.println("[GROUP_CHAT] 获取群 " + groupId + " 成员失败: " + e.getMessage());
+            return;
         }
+        UnreadCounterStore.incrementGroup(ChatService.groupConversationKey(groupId), fromUserId);
+
+        // 不向发送者自己发送（可选，根据需求调整）
+        OutboundMessage receiveMsg = new OutboundMessage(createReceiveMessage(originalMessage, messageId));
+        long[] online = OnlineUserManager.onlineAmong(members).toArray();
+        FanoutEngine.broadcast(groupId, online, members.cardinality(), fromUserId, receiveMsg);
     }
 
     /**
@@ -3,23 +3,24 @@ package com.chat.handler;
 import com.chat.protocol.ChatPrivateReceive;
 import com.chat.protocol.ChatPrivateSend;
 import com.chat.core.ChatService;
+import com.chat.server.ClientSession;
+import com.chat.utils.MessageIdGenerator;
 import com.chat.utils.OnlineUserManager;
-import com.google.gson.Gson;
 
-import java.io.PrintWriter;
+import java.util.function.Consumer;
 
 public class ChatHandler {
 
-    private final Gson gson = new Gson();
     private final ChatService chatService = new ChatService(); // 新增ChatService依赖
 
     /**
      * 处理私聊消息（协议：chat_private_send）
      * - 入参：ChatPrivateSend（fromUserId/toUserId/content/contentType/timestamp）
      * - 行为：向目标用户在线连接推送 ChatPrivateReceive
+     * - onAccepted：消息持久化后回调（返回 false 时不会回调）
      * - 返回：是否处理成功
      */
-    public boolean handle(ChatPrivateSend chatRequest) {
+    public boolean handle(ChatPrivateSend chatRequest, Consumer<Boolean> onAccepted) {
         if (chatRequest == null) return false;
         Long fromUserId = chatRequest.getFromUserId();
         Long toUserId = chatRequest.getToUserId();
@@ -31,13 +32,23 @@ public class ChatHandler {
             System.out.println("[CHAT] 无效的消息字段：fromUserId/toUserId/content 不能为空");
             return false;
         }
+        String invalid = ChatService.validateMessage(content, contentType, chatRequest.getFileUrl(),
+                chatRequest.getFileSize(), chatRequest.getFileName());
+        if (invalid != null) {
+            System.out.println("[CHAT] 拒绝无法入库的消息 " + fromUserId + " -> " + toUserId + ": " + invalid);
+            return false;
+        }
 
         System.out.println("发送者 " + fromUserId + " 到 " + toUserId
                 + " : " + content + "，已转发");
 
-        // ========== 修复点：保存消息到数据库 ==========
+        // 消息 ID 在内存中分配，推送与落库并行
+        long messageId = MessageIdGenerator.nextId();
+
+        // ========== 修复点：保存消息到数据库（异步批量写入，不等待落库即推送） ==========
         try {
-            boolean saved = chatService.savePrivateMessage(
+            chatService.savePrivateMessageAsync(
+                    messageId,
                     fromUserId,
                     toUserId,
                     content,
@@ -45,28 +56,35 @@ public class ChatHandler {
                     chatRequest.getFileUrl(),
                     chatRequest.getFileSize(),
                     chatRequest.getFileName(),
-                    timestamp != null ? timestamp : System.currentTimeMillis() // 修复这里
+                    timestamp != null ? timestamp : System.currentTimeMillis(), // 修复这里
+                    onAccepted,
+                    storedId -> {
+                        if (storedId == null) {
+                            System.out.println("[CHAT] 警告：保存消息到数据库失败 " + fromUserId + " -> " + toUserId);
+                        }
+                    }
             );
-
-            if (!saved) {
-                System.out.println("[CHAT] 警告：保存消息到数据库失败，但继续推送");
-            } else {
-                System.out.println("[CHAT] 消息已保存到数据库");
-            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         } catch (Exception e) {
+            // 返回 false 由调用方回复发送失败，也不再推送给接收方
             System.err.println("[CHAT] 保存消息异常: " + e.getMessage());
             e.printStackTrace();
+            return false;
         }
         // ========== 修复结束 ==========
 
         // 若接收方在线则推送
-        PrintWriter targetOut = OnlineUserManager.getUserOutput(toUserId);
-        if (targetOut != null) {
+        ClientSession target = OnlineUserManager.getSession(toUserId);
+        if (target != null) {
             // 使用timestamp变量，它已经是Long类型
             Long sendTimestamp = timestamp != null ? timestamp : System.currentTimeMillis();
             ChatPrivateReceive rec = new ChatPrivateReceive(fromUserId, toUserId, content,
                     contentType != null ? contentType : "text", sendTimestamp);
-            targetOut.println(gson.toJson(rec));
+            rec.setId(messageId);
+            rec.setIsRead(0);
+            target.push(rec);
         }
 
         return true;
@@ -3,7 +3,10 @@ package com.chat.handler;
 import com.chat.core.ChatService;
 import com.chat.protocol.ChatHistoryRequest;
 import com.chat.protocol.ChatHistoryResponse;
+import com.chat.protocol.MarkReadRequest;
+import com.chat.protocol.MarkReadResponse;
 import com.chat.protocol.MessageType;
+import com.chat.core.GroupService;
 
 /**
  * 聊天历史记录处理器 - 简化版
@@ -52,6 +55,7 @@ public class ChatHistoryHandler {
                 chatType,
                 targetId,
                 currentUid,
+                request.getBeforeId(),
                 request.getBeforeTimestamp(),
                 limit
         );
@@ -61,6 +65,45 @@ public class ChatHistoryHandler {
         return response;
     }
 
+    /**
+     * 处理标记已读请求：前进自己在会话中的已读游标，返回游标和剩余未读数
+     */
+    public MarkReadResponse handleMarkRead(MarkReadRequest request, Long currentUid) {
+        MarkReadResponse response = new MarkReadResponse();
+        if (request == null || currentUid == null) {
+            response.setMessage("请求数据无效");
+            return response;
+        }
+        response.setChatType(request.getChatType());
+        response.setTargetUserId(request.getTargetUserId());
+        response.setGroupId(request.getGroupId());
+
+        String key;
+        if ("private".equals(request.getChatType()) && request.getTargetUserId() != null) {
+            key = ChatService.privateConversationKey(currentUid, request.getTargetUserId());
+        } else if ("group".equals(request.getChatType()) && request.getGroupId() != null) {
+            if (!new GroupService().isUserInGroup(currentUid, request.getGroupId())) {
+                response.setMessage("用户不在该群组中");
+                return response;
+            }
+            key = ChatService.groupConversationKey(request.getGroupId());
+        } else {
+            response.setMessage("聊天类型或目标无效");
+            return response;
+        }
+
+        try {
+            response.setLastReadId(chatService.markConversationRead(currentUid, key, request.getMessageId()));
+            response.setUnreadCount(chatService.getUnreadCount(currentUid, key));
+            response.setSuccess(true);
+            response.setMessage("已标记为已读");
+        } catch (Exception e) {
+            System.err.println("[MARK_READ] 标记已读失败: " + e.getMessage());
+            response.setMessage("标记已读失败");
+        }
+        return response;
+    }
+
     private ChatHistoryResponse createErrorResponse(String message) {
         ChatHistoryResponse response = new ChatHistoryResponse();
         response.setType(MessageType.CHAT_HISTORY_RESPONSE);
@@ -1,22 +1,43 @@
 package com.chat.handler;
 
+import com.chat.core.InboxService;
+import com.chat.server.ClientSession;
+import com.chat.server.CompactCodec;
+import com.chat.server.FrameCodec;
+import com.chat.server.RequestPipeline;
+import com.chat.server.ServerConfig;
 import com.chat.utils.OnlineUserManager;
+import com.chat.utils.ProtocolCodecs;
 import com.chat.protocol.*;
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ClientHandler implements Runnable {
 
-    private final Socket clientSocket;
-    private final Gson gson = new Gson();
-    private Long currentUid = null;
-    private PrintWriter out;
+    private final Socket clientSocket;      // 阻塞模式下的socket，非阻塞模式下为null
+    private final Closeable connection;     // 用于关闭连接（Socket 或 NIO 连接）
+    private final String remoteAddress;
+    private static final Gson GSON = ProtocolCodecs.GSON;
+    private volatile Long currentUid = null;
+    private ClientSession session;
+    private final RequestPipeline pipeline = new RequestPipeline();
+
+    // 当前线程正在处理的请求的 requestId（JSON 字面量），发出的响应会带上它
+    private static final ThreadLocal<String> CURRENT_REQUEST_ID = new ThreadLocal<>();
 
     // Handler实例
     private final LoginHandler loginHandler = new LoginHandler();
@@ -33,159 +54,47 @@ public class ClientHandler implements Runnable {
     private final GroupDetailHandler groupDetailHandler = new GroupDetailHandler();
     private final GroupMemberHandler groupMemberHandler = new GroupMemberHandler();
     private final FileHandler fileHandler = new FileHandler();
+    private final InboxService inboxService = new InboxService();
 
     public ClientHandler(Socket socket) {
         this.clientSocket = socket;
+        this.connection = socket;
+        this.remoteAddress = socket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * 非阻塞传输使用：读写由传输层负责，本类只负责按行分发消息
+     * - output：写往客户端的字节流（由会话写线程写入）
+     * - connection：关闭时调用，用于断开底层连接
+     */
+    public ClientHandler(OutputStream output, Closeable connection, String remoteAddress) {
+        this.clientSocket = null;
+        this.connection = connection;
+        this.remoteAddress = remoteAddress;
+        this.session = ClientSession.open(output, connection, remoteAddress);
     }
 
     @Override
     public void run() {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)) {
-
-            this.out = writer;
-            System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
-
-            String line;
-            while ((line = in.readLine()) != null) {
-                System.out.println("[HANDLER] Received from client: " + line);
-
-                try {
-                    JsonObject root = gson.fromJson(line, JsonObject.class);
-                    if (root == null || !root.has("type")) {
-                        continue;
-                    }
-                    String type = root.get("type").getAsString();
-
-                    switch (type) {
-                        case MessageType.LOGIN_REQUEST -> {
-                            LoginRequest loginReq = gson.fromJson(line, LoginRequest.class);
-                            handleLogin(loginReq);
-                        }
-                        case MessageType.REGISTER_REQUEST -> {
-                            RegisterRequest registerReq = gson.fromJson(line, RegisterRequest.class);
-                            handleRegister(registerReq);
-                        }
-                        case MessageType.USER_INFO_REQUEST -> {
-                            if (currentUid == null) break;
-                            UserInfoRequest userInfoReq = gson.fromJson(line, UserInfoRequest.class);
-                            handleUserInfo(userInfoReq);
-                        }
-                        case MessageType.UPDATE_PROFILE_REQUEST -> {
-                            if (currentUid == null) break;
-                            UpdateProfileRequest updateProfileReq = gson.fromJson(line, UpdateProfileRequest.class);
-                            handleUpdateProfile(updateProfileReq);
-                        }
-                        case MessageType.FRIEND_ADD_REQUEST -> {
-                            if (currentUid == null) break;
-                            FriendAddRequest friendReq = gson.fromJson(line, FriendAddRequest.class);
-                            handleFriendAdd(friendReq);
-                        }
-                        case MessageType.FRIEND_LIST_REQUEST -> {
-                            if (currentUid == null) break;
-                            FriendListRequest friendListReq = gson.fromJson(line, FriendListRequest.class);
-                            handleFriendList(friendListReq);
-                        }
-                        case MessageType.GROUP_LIST_REQUEST -> {
-                            if (currentUid == null) break;
-                            GroupListRequest groupListReq = gson.fromJson(line, GroupListRequest.class);
-                            handleGroupList(groupListReq);
-                        }
-                        case MessageType.CHAT_PRIVATE_SEND -> {
-                            if (currentUid == null) break;
-                            ChatPrivateSend cps = gson.fromJson(line, ChatPrivateSend.class);
-                            cps.setFromUserId(currentUid);
-                            handlePrivateChat(cps);
-                        }
-                        case MessageType.CHAT_GROUP_SEND -> {
-                            if (currentUid == null) break;
-                            ChatGroupSend cgs = gson.fromJson(line, ChatGroupSend.class);
-                            cgs.setFromUserId(currentUid);
-                            handleGroupChat(cgs);
-                        }
-                        case MessageType.CHAT_HISTORY_REQUEST -> {
-                            if (currentUid == null) break;
-                            ChatHistoryRequest historyReq = gson.fromJson(line, ChatHistoryRequest.class);
-                            handleChatHistory(historyReq);
-                        }
-                        case MessageType.RESET_PASSWORD_REQUEST -> {
-                            ResetPasswordRequest resetReq = gson.fromJson(line, ResetPasswordRequest.class);
-                            handleResetPassword(resetReq);
-                        }
-                        case MessageType.FRIEND_REQUEST_LIST_REQUEST -> {
-                            if (currentUid == null) break;
-                            FriendRequestListRequest friendReqListReq = gson.fromJson(line, FriendRequestListRequest.class);
-                            handleFriendRequestList(friendReqListReq);
-                        }
-                        case MessageType.FRIEND_REQUEST_RESPONSE -> {
-                            if (currentUid == null) break;
-                            FriendRequestResponse friendReqResp = gson.fromJson(line, FriendRequestResponse.class);
-                            handleFriendRequestResponse(friendReqResp);
-                        }
-                        case MessageType.GROUP_CREATE_REQUEST -> {
-                            if (currentUid == null) break;
-                            GroupCreateRequest groupCreateReq = gson.fromJson(line, GroupCreateRequest.class);
-                            handleGroupCreate(groupCreateReq);
-                        }
-                        case MessageType.CHANGE_PASSWORD_REQUEST -> {
-                            if (currentUid == null) break;
-                            ChangePasswordRequest changePwdReq = gson.fromJson(line, ChangePasswordRequest.class);
-                            handleChangePassword(changePwdReq);
-                        }
-                        case MessageType.FRIEND_DETAIL_REQUEST -> {
-                            if (currentUid == null) break;
-                            FriendDetailRequest friendDetailReq = gson.fromJson(line, FriendDetailRequest.class);
-                            handleFriendDetail(friendDetailReq);
-                        }
-                        case MessageType.DELETE_FRIEND_REQUEST -> {
-                            if (currentUid == null) break;
-                            DeleteFriendRequest deleteFriendReq = gson.fromJson(line, DeleteFriendRequest.class);
-                            handleDeleteFriend(deleteFriendReq);
-                        }
-                        case MessageType.GROUP_DETAIL_REQUEST -> {
-                            if (currentUid == null) break;
-                            GroupDetailRequest groupDetailReq = gson.fromJson(line, GroupDetailRequest.class);
-                            handleGroupDetail(groupDetailReq);
-                        }
-                        case MessageType.EXIT_GROUP_REQUEST -> {
-                            if (currentUid == null) break;
-                            ExitGroupRequest exitGroupReq = gson.fromJson(line, ExitGroupRequest.class);
-                            handleExitGroup(exitGroupReq);
-                        }
-                        case MessageType.GROUP_ADD_MEMBER_REQUEST -> {
-                            if (currentUid == null) break;
-                            GroupAddMemberRequest groupAddMemberReq = gson.fromJson(line, GroupAddMemberRequest.class);
-                            handleGroupAddMember(groupAddMemberReq);
-                        }
-                        case MessageType.FILE_UPLOAD_REQUEST -> {
-                            if (currentUid == null) break;
-                            FileUploadRequest fileUploadReq = gson.fromJson(line, FileUploadRequest.class);
-                            handleFileUpload(fileUploadReq);
-                        }
-                        case MessageType.FILE_DOWNLOAD_REQUEST -> {
-                            if (currentUid == null) break;
-                            FileDownloadRequest fileDownloadReq = gson.fromJson(line, FileDownloadRequest.class);
-                            handleFileDownload(fileDownloadReq);
-                        }
-                        case MessageType.FILE_PRIVATE_SEND -> {
-                            if (currentUid == null) break;
-                            FilePrivateSend filePrivateSend = gson.fromJson(line, FilePrivateSend.class);
-                            handleFilePrivateSend(filePrivateSend);
-                        }
-                        case MessageType.FILE_GROUP_SEND -> {
-                            if (currentUid == null) break;
-                            FileGroupSend fileGroupSend = gson.fromJson(line, FileGroupSend.class);
-                            handleFileGroupSend(fileGroupSend);
-                        }
-                        default -> System.out.println("[WARN] Unsupported type: " + type);
-                    }
-                } catch (JsonSyntaxException e) {
-                    fallbackLog(line);
-                } catch (Exception e) {
-                    System.err.println("Handler error: " + e.getMessage());
-                    e.printStackTrace();
-                    break;
-                }
+        try (InputStream in = new BufferedInputStream(clientSocket.getInputStream())) {
+
+            // 缓冲区与写合并上限一致，一批消息一次系统调用写出
+            clientSocket.setTcpNoDelay(true);
+            this.session = ClientSession.open(new BufferedOutputStream(clientSocket.getOutputStream(),
+                    ServerConfig.SESSION_COALESCE_BYTES), clientSocket, remoteAddress);
+            System.out.println("New client connected: " + remoteAddress);
+
+            // 按第一个字节判断帧格式：二进制前导 或 按行 JSON
+            in.mark(1);
+            int first = in.read();
+            if (first < 0) {
+                return;
+            }
+            in.reset();
+            if (FrameCodec.isBinaryPreface(first)) {
+                readBinaryFrames(new DataInputStream(in));
+            } else {
+                readLines(new BufferedReader(new InputStreamReader(in)));
             }
         } catch (IOException e) {
             System.out.println("[INFO] 客户端断开: " + clientSocket.getInetAddress() + " - " + e.getMessage());
@@ -194,18 +103,362 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    private void readLines(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!handleLine(line)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 二进制帧：按长度一次读满负载，不支持的帧类型直接跳过
+     */
+    private void readBinaryFrames(DataInputStream in) throws IOException {
+        byte[] preface = new byte[FrameCodec.BINARY_PREFACE.length];
+        in.readFully(preface);
+        if (!FrameCodec.isBinaryPreface(preface)) {
+            System.err.println("[FRAME] 客户端 " + remoteAddress + " 二进制前导无效，断开连接");
+            return;
+        }
+        enableBinaryFraming(FrameCodec.prefaceEncoding(preface));
+
+        int kind;
+        while ((kind = in.read()) >= 0) {
+            int length = in.readInt();
+            if (length < 0 || length > ServerConfig.MAX_FRAME_BYTES) {
+                System.err.println("[FRAME] 客户端 " + remoteAddress + " 帧长度 " + length + " 超出限制，断开连接");
+                return;
+            }
+            if (!FrameCodec.isSupportedKind((byte) kind)) {
+                in.skipNBytes(length);
+                continue;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (!handleFrame((byte) kind, payload)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 客户端协商使用二进制帧（由传输层在读到前导时调用）
+     */
+    public void enableBinaryFraming(byte encoding) {
+        System.out.println("[FRAME] 客户端 " + remoteAddress + " 使用二进制帧"
+                + (encoding == FrameCodec.ENCODING_COMPACT ? "（紧凑编码）" : ""));
+        session.enableBinaryFraming(encoding);
+    }
+
+    /**
+     * 处理一个完整的帧
+     * 返回：false 表示发生严重错误，调用方应断开连接
+     */
+    public boolean handleFrame(byte kind, byte[] payload) {
+        if (kind == FrameCodec.KIND_JSON) {
+            return handleLine(new String(payload, StandardCharsets.UTF_8));
+        }
+        if (kind == FrameCodec.KIND_COMPACT) {
+            return handleCompact(payload);
+        }
+        System.out.println("[WARN] Unsupported frame kind: " + kind);
+        return true;
+    }
+
+    /**
+     * 处理客户端发来的一行 JSON 消息
+     * 先用流式解析只读出 type（和 requestId），再按路由表直接绑定到对应协议类（整行只完整解析一次）
+     * 不带 requestId 的请求按到达顺序依次处理；带 requestId 的请求交给流水线并发处理，响应中原样带回 requestId
+     * 返回：false 表示发生严重错误，调用方应断开连接
+     */
+    public boolean handleLine(String line) {
+        System.out.println("[HANDLER] Received from client: " + line);
+
+        if (line.isBlank()) {
+            return true;
+        }
+
+        try {
+            MessageHeader header = peekHeader(line);
+            if (header.type == null) {
+                return true;
+            }
+
+            MessageRoute<?> route = ROUTES.get(header.type);
+            if (route == null) {
+                System.out.println("[WARN] Unsupported type: " + header.type);
+                return true;
+            }
+            if (route.requiresLogin && currentUid == null) {
+                return true;
+            }
+
+            Object message = route.parse(line);
+            // 登录/注册/重置密码会改变连接状态，始终按顺序处理
+            if (header.requestId == null || !route.requiresLogin) {
+                dispatch(route, message, header.requestId);
+                return true;
+            }
+            String requestId = header.requestId;
+            Object conversation = conversationKey(message);
+            if (conversation != null) {
+                pipeline.submitOrdered(conversation, () -> dispatch(route, message, requestId));
+            } else {
+                pipeline.submit(() -> dispatch(route, message, requestId));
+            }
+        } catch (IOException | JsonParseException e) {
+            fallbackLog(line);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            System.err.println("Handler error: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 执行路由，执行期间该线程发出的响应都带上 requestId
+     */
+    private void dispatch(MessageRoute<?> route, Object message, String requestId) {
+        if (requestId == null) {
+            route.run(this, message);
+            return;
+        }
+        CURRENT_REQUEST_ID.set(requestId);
+        try {
+            route.run(this, message);
+        } finally {
+            CURRENT_REQUEST_ID.remove();
+        }
+    }
+
+    /**
+     * 聊天发送按会话保序：同一私聊对象 / 同一群的消息串行处理，其他请求返回 null（可并发）
+     */
+    private static Object conversationKey(Object message) {
+        if (message instanceof ChatPrivateSend m) {
+            return "p:" + m.getToUserId();
+        }
+        if (message instanceof ChatGroupSend m) {
+            return "g:" + m.getGroupId();
+        }
+        if (message instanceof FilePrivateSend m) {
+            return "p:" + m.getReceiverId();
+        }
+        if (message instanceof FileGroupSend m) {
+            return "g:" + m.getGroupId();
+        }
+        return null;
+    }
+
+    /**
+     * 处理一条紧凑编码的聊天消息：按消息编号找到路由，直接交给对应的处理方法
+     */
+    private boolean handleCompact(byte[] payload) {
+        String type = CompactCodec.messageType(payload);
+        MessageRoute<?> route = type == null ? null : ROUTES.get(type);
+        if (route == null) {
+            System.out.println("[WARN] Unsupported compact message: " + (payload.length > 0 ? payload[0] : -1));
+            return true;
+        }
+        if (route.requiresLogin && currentUid == null) {
+            return true;
+        }
+        try {
+            route.run(this, CompactCodec.decode(payload));
+        } catch (IOException e) {
+            System.out.println("[WARN] 紧凑消息解析失败: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Handler error: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 流式读取顶层的 type 和 requestId 字段，不构建 JsonObject 树
+     * 整行不包含 "requestId" 时读到 type 即返回
+     */
+    private static MessageHeader peekHeader(String line) throws IOException {
+        MessageHeader header = new MessageHeader();
+        boolean wantRequestId = line.contains("\"requestId\"");
+        JsonReader reader = new JsonReader(new StringReader(line));
+        reader.setLenient(true);
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return header;
+        }
+        reader.beginObject();
+        boolean typeSeen = false;
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (!typeSeen && "type".equals(name)) {
+                typeSeen = true;
+                if (reader.peek() != JsonToken.STRING) {
+                    return header;
+                }
+                header.type = reader.nextString();
+            } else if (wantRequestId && header.requestId == null && "requestId".equals(name)) {
+                header.requestId = readRequestId(reader);
+            } else {
+                reader.skipValue();
+            }
+            if (typeSeen && (!wantRequestId || header.requestId != null)) {
+                break;
+            }
+        }
+        return header;
+    }
+
+    /**
+     * 读取 requestId，返回可直接拼进响应 JSON 的字面量（字符串带引号，数字原样）
+     */
+    private static String readRequestId(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NUMBER) {
+            String number = reader.nextString();
+            return REQUEST_ID_NUMBER.matcher(number).matches() ? number : GSON.toJson(number);
+        }
+        if (token == JsonToken.STRING) {
+            return GSON.toJson(reader.nextString());
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static final Pattern REQUEST_ID_NUMBER = Pattern.compile("-?\\d{1,18}");
+
+    private static final class MessageHeader {
+        private String type;
+        private String requestId;
+    }
+
+    // ===================== 消息路由表 =====================
+
+    private static final Map<String, MessageRoute<?>> ROUTES = new HashMap<>();
+
+    static {
+        route(MessageType.LOGIN_REQUEST, LoginRequest.class, false, ClientHandler::handleLogin);
+        route(MessageType.REGISTER_REQUEST, RegisterRequest.class, false, ClientHandler::handleRegister);
+        route(MessageType.RESET_PASSWORD_REQUEST, ResetPasswordRequest.class, false, ClientHandler::handleResetPassword);
+
+        route(MessageType.USER_INFO_REQUEST, UserInfoRequest.class, true, ClientHandler::handleUserInfo);
+        route(MessageType.UPDATE_PROFILE_REQUEST, UpdateProfileRequest.class, true, ClientHandler::handleUpdateProfile);
+        route(MessageType.FRIEND_ADD_REQUEST, FriendAddRequest.class, true, ClientHandler::handleFriendAdd);
+        route(MessageType.FRIEND_LIST_REQUEST, FriendListRequest.class, true, ClientHandler::handleFriendList);
+        route(MessageType.GROUP_LIST_REQUEST, GroupListRequest.class, true, ClientHandler::handleGroupList);
+        route(MessageType.CHAT_PRIVATE_SEND, ChatPrivateSend.class, true, (h, cps) -> {
+            cps.setFromUserId(h.currentUid);
+            h.handlePrivateChat(cps);
+        });
+        route(MessageType.CHAT_GROUP_SEND, ChatGroupSend.class, true, (h, cgs) -> {
+            cgs.setFromUserId(h.currentUid);
+            h.handleGroupChat(cgs);
+        });
+        route(MessageType.CHAT_HISTORY_REQUEST, ChatHistoryRequest.class, true, ClientHandler::handleChatHistory);
+        route(MessageType.MARK_READ_REQUEST, MarkReadRequest.class, true, ClientHandler::handleMarkRead);
+        route(MessageType.FRIEND_REQUEST_LIST_REQUEST, FriendRequestListRequest.class, true, ClientHandler::handleFriendRequestList);
+        route(MessageType.FRIEND_REQUEST_RESPONSE, FriendRequestResponse.class, true, ClientHandler::handleFriendRequestResponse);
+        route(MessageType.GROUP_CREATE_REQUEST, GroupCreateRequest.class, true, ClientHandler::handleGroupCreate);
+        route(MessageType.CHANGE_PASSWORD_REQUEST, ChangePasswordRequest.class, true, ClientHandler::handleChangePassword);
+        route(MessageType.FRIEND_DETAIL_REQUEST, FriendDetailRequest.class, true, ClientHandler::handleFriendDetail);
+        route(MessageType.DELETE_FRIEND_REQUEST, DeleteFriendRequest.class, true, ClientHandler::handleDeleteFriend);
+        route(MessageType.GROUP_DETAIL_REQUEST, GroupDetailRequest.class, true, ClientHandler::handleGroupDetail);
+        route(MessageType.EXIT_GROUP_REQUEST, ExitGroupRequest.class, true, ClientHandler::handleExitGroup);
+        route(MessageType.GROUP_ADD_MEMBER_REQUEST, GroupAddMemberRequest.class, true, ClientHandler::handleGroupAddMember);
+        route(MessageType.FILE_UPLOAD_REQUEST, FileUploadRequest.class, true, ClientHandler::handleFileUpload);
+        route(MessageType.FILE_DOWNLOAD_REQUEST, FileDownloadRequest.class, true, ClientHandler::handleFileDownload);
+        route(MessageType.FILE_PRIVATE_SEND, FilePrivateSend.class, true, ClientHandler::handleFilePrivateSend);
+        route(MessageType.FILE_GROUP_SEND, FileGroupSend.class, true, ClientHandler::handleFileGroupSend);
+    }
+
+    private static <T> void route(String type, Class<T> messageClass, boolean requiresLogin,
+                                  BiConsumer<ClientHandler, T> action) {
+        ROUTES.put(type, new MessageRoute<>(messageClass, GSON.getAdapter(messageClass), requiresLogin, action));
+    }
+
+    /**
+     * 路由项：协议类的 TypeAdapter（从 Gson 缓存中取一次）+ 是否需要登录 + 处理方法
+     */
+    private static final class MessageRoute<T> {
+        private final Class<T> messageClass;
+        private final TypeAdapter<T> adapter;
+        private final boolean requiresLogin;
+        private final BiConsumer<ClientHandler, T> action;
+
+        private MessageRoute(Class<T> messageClass, TypeAdapter<T> adapter, boolean requiresLogin,
+                             BiConsumer<ClientHandler, T> action) {
+            this.messageClass = messageClass;
+            this.adapter = adapter;
+            this.requiresLogin = requiresLogin;
+            this.action = action;
+        }
+
+        private T parse(String line) throws IOException {
+            JsonReader reader = new JsonReader(new StringReader(line));
+            reader.setLenient(true);
+            return adapter.read(reader);
+        }
+
+        /**
+         * 执行处理方法（消息来自 parse 或紧凑编码解码）
+         */
+        private void run(ClientHandler handler, Object message) {
+            action.accept(handler, messageClass.cast(message));
+        }
+    }
+
+    /**
+     * 连接断开时由传输层调用（非阻塞模式）
+     */
+    public void onDisconnect() {
+        System.out.println("[INFO] 客户端断开: " + remoteAddress);
+        cleanup();
+    }
+
     private void handleLogin(LoginRequest loginRequest) {
         LoginResponse response = loginHandler.handle(loginRequest);
         if (response.isSuccess() && response.getUid() != null) {
             try {
                 currentUid = Long.parseLong(response.getUid());
-                OnlineUserManager.addUser(currentUid, out);
+                session.setUid(currentUid);
+                OnlineUserManager.addUser(currentUid, session);
                 System.out.println("用户UID " + currentUid + " 登录成功，保持连接...");
             } catch (NumberFormatException e) {
                 System.err.println("[LOGIN] UID格式错误: " + response.getUid());
             }
         }
-        sendJson(response);
+
+        // 压缩协商：登录响应本身不压缩，之后服务器发出的数据都经过 deflate
+        boolean compress = currentUid != null && ServerConfig.COMPRESSION_ENABLED && !session.isCompressed()
+                && ServerConfig.COMPRESSION_DEFLATE.equalsIgnoreCase(loginRequest.getCompression());
+        if (compress) {
+            response.setCompression(ServerConfig.COMPRESSION_DEFLATE);
+        }
+        sendJson(response, CURRENT_REQUEST_ID.get(), compress);
+        if (currentUid != null) {
+            syncInbox();
+        }
+    }
+
+    /**
+     * 登录后同步离线期间的消息（跨所有会话，一次查询，分几帧发出）
+     */
+    private void syncInbox() {
+        try {
+            for (InboxSyncResponse frame : inboxService.sync(currentUid)) {
+                sendJson(frame, null);
+            }
+        } catch (SQLException e) {
+            System.err.println("[INBOX] 用户 " + currentUid + " 同步离线消息失败: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void handleRegister(RegisterRequest registerRequest) {
@@ -296,19 +549,35 @@ public class ClientHandler implements Runnable {
     }
 
     private void handlePrivateChat(ChatPrivateSend chatRequest) {
-        boolean success = chatHandler.handle(chatRequest);
+        Consumer<Boolean> ack = sendAck();
+        boolean success = chatHandler.handle(chatRequest, ack);
         if (!success) {
             System.out.println("[CHAT] 私聊消息处理失败");
+            ack.accept(false);
         }
     }
 
     private void handleGroupChat(ChatGroupSend chatRequest) {
-        boolean success = chatGroupHandler.handle(chatRequest);
+        Consumer<Boolean> ack = sendAck();
+        boolean success = chatGroupHandler.handle(chatRequest, ack);
         if (!success) {
             System.out.println("[GROUP_CHAT] 群聊消息处理失败");
+            ack.accept(false);
         }
     }
 
+    /**
+     * 发送确认：带 requestId 的聊天发送在消息持久化后回 chat_send_ack（在日志/写库线程上回调）
+     * 不带 requestId 的发送不回确认
+     */
+    private Consumer<Boolean> sendAck() {
+        String requestId = CURRENT_REQUEST_ID.get();
+        if (requestId == null) {
+            return success -> {};
+        }
+        return success -> sendJson(new ChatSendAck(success, success ? "发送成功" : "发送失败"), requestId);
+    }
+
     private void handleGroupAddMember(GroupAddMemberRequest request) {
         GroupAddMemberResponse response = groupMemberHandler.handleAddMember(request, currentUid);
         sendJson(response);
@@ -319,17 +588,19 @@ public class ClientHandler implements Runnable {
         sendJson(response);
     }
 
+    private void handleMarkRead(MarkReadRequest request) {
+        MarkReadResponse response = chatHistoryHandler.handleMarkRead(request, currentUid);
+        sendJson(response);
+    }
+
     private void handleResetPassword(ResetPasswordRequest resetRequest) {
         ResetPasswordResponse response = resetPasswordHandler.handle(resetRequest);
         sendJson(response);
 
         // 密码重置后关闭连接（安全考虑）
         if (response.isSuccess()) {
-            try {
-                clientSocket.close();
-            } catch (IOException e) {
-                System.out.println("[INFO] 重置密码后关闭连接: " + e.getMessage());
-            }
+            // 响应写出后再断开
+            session.close();
         }
     }
 
@@ -339,19 +610,15 @@ public class ClientHandler implements Runnable {
 
         // 密码修改成功后强制用户重新登录（安全考虑）
         if (response.isSuccess()) {
-            try {
-                System.out.println("[INFO] 用户 " + currentUid + " 修改密码成功，强制重新登录");
-
-                // 从在线用户列表中移除
-                OnlineUserManager.removeUser(currentUid);
+            System.out.println("[INFO] 用户 " + currentUid + " 修改密码成功，强制重新登录");
 
-                // 关闭连接
-                if (!clientSocket.isClosed()) {
-                    clientSocket.close();
-                }
-            } catch (IOException e) {
-                System.out.println("[INFO] 关闭连接时发生错误: " + e.getMessage());
+            // 从在线用户列表中移除（之后 cleanup 不会再移除，投递游标在这里前进）
+            if (OnlineUserManager.removeUser(currentUid, session)) {
+                inboxService.onDisconnect(currentUid);
             }
+
+            // 响应写出后关闭连接
+            session.close();
         }
     }
 
@@ -361,9 +628,46 @@ public class ClientHandler implements Runnable {
     }
 
     private void sendJson(Object obj) {
-        if (out != null && !out.checkError()) {
-            out.println(gson.toJson(obj));
+        sendJson(obj, CURRENT_REQUEST_ID.get());
+    }
+
+    private void sendJson(Object obj, String requestId) {
+        sendJson(obj, requestId, false);
+    }
+
+    /**
+     * thenCompress：响应入队时紧跟着开启压缩（登录协商 deflate 时使用）
+     */
+    private void sendJson(Object obj, String requestId, boolean thenCompress) {
+        if (session == null || !session.isOpen()) {
+            return;
+        }
+        if (requestId == null) {
+            if (thenCompress) {
+                session.sendThenCompress(obj);
+            } else {
+                session.send(obj);
+            }
+        } else {
+            // 带 requestId 的响应固定使用 JSON（紧凑编码没有 requestId 字段）
+            String json = withRequestId(GSON.toJson(obj), requestId);
+            if (thenCompress) {
+                session.sendThenCompress(json);
+            } else {
+                session.send(json);
+            }
+        }
+    }
+
+    /**
+     * 在响应 JSON 的开头插入 "requestId"
+     */
+    private static String withRequestId(String json, String requestId) {
+        if (json.length() < 2 || json.charAt(0) != '{') {
+            return json;
         }
+        String field = "{\"requestId\":" + requestId;
+        return json.length() == 2 ? field + "}" : field + "," + json.substring(1);
     }
 
     private void fallbackLog(String line) {
@@ -377,13 +681,17 @@ public class ClientHandler implements Runnable {
 
     private void cleanup() {
         if (currentUid != null) {
-            OnlineUserManager.removeUser(currentUid);
+            // 被同账号新连接替换的旧会话不动投递游标：用户仍在线，游标前进会让新会话漏掉这段时间的消息
+            if (OnlineUserManager.removeUser(currentUid, session)) {
+                inboxService.onDisconnect(currentUid);
+            }
             System.out.println("[ONLINE] 用户UID " + currentUid + " 已下线");
         }
+        if (session != null) {
+            session.close();
+        }
         try {
-            if (!clientSocket.isClosed()) {
-                clientSocket.close();
-            }
+            connection.close();
         } catch (IOException e) {
             System.err.println("Error closing socket: " + e.getMessage());
         }
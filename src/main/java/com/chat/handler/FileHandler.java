@@ -3,6 +3,7 @@ package com.chat.handler;
 import com.chat.core.FileService;
 import com.chat.protocol.*;
 import com.chat.utils.FileStorageUtil;
+import com.chat.utils.ProtocolCodecs;
 import com.google.gson.Gson;
 
 import java.io.File;
@@ -18,7 +19,7 @@ import java.util.UUID;
  */
 public class FileHandler {
 
-    private final Gson gson = new Gson();
+    private final Gson gson = ProtocolCodecs.GSON;
     private final FileService fileService = new FileService();
     private static final String FILE_UPLOAD_DIR = "uploads/files/";
 
@@ -380,15 +381,15 @@ public class FileHandler {
      */
     private void forwardFilePrivateReceive(FilePrivateReceive message) {
         try {
-            // 使用OnlineUserManager获取接收方的输出流
+            // 使用OnlineUserManager获取接收方的会话
             // 这里需要你实现转发逻辑
             System.out.println("[FILE_HANDLER] 需要转发私聊文件消息给用户: " + message.getReceiverId());
 
             // 示例转发代码（需要你根据实际架构实现）：
-            // PrintWriter out = OnlineUserManager.getUserOutput(message.getReceiverId());
-            // if (out != null) {
+            // ClientSession session = OnlineUserManager.getSession(message.getReceiverId());
+            // if (session != null) {
             //     String json = gson.toJson(message);
-            //     out.println(json);
+            //     session.push(json);
             // }
 
         } catch (Exception e) {
@@ -408,10 +409,10 @@ public class FileHandler {
             // List<Long> memberIds = getGroupMembers(message.getGroupId());
             // for (Long memberId : memberIds) {
             //     if (!memberId.equals(message.getSenderId())) { // 不发给发送者自己
-            //         PrintWriter out = OnlineUserManager.getUserOutput(memberId);
-            //         if (out != null) {
+            //         ClientSession session = OnlineUserManager.getSession(memberId);
+            //         if (session != null) {
             //             String json = gson.toJson(message);
-            //             out.println(json);
+            //             session.push(json);
             //         }
             //     }
             // }
@@ -1,7 +1,10 @@
 package com.chat.handler;
 
+import com.chat.core.ChatService;
 import com.chat.core.FriendService;
+import com.chat.core.UnreadCounterStore;
 import com.chat.protocol.*;
+import com.chat.utils.OnlineUserManager;
 
 /**
  * 好友关系处理器
@@ -150,6 +153,12 @@ public class FriendHandler {
         }
 
         var friends = friendService.getFriendList(currentUid);
+        // 未读数来自内存计数，在线状态来自在线用户表，不查库
+        for (FriendListResponse.FriendItem friend : friends) {
+            friend.setUnreadCount(UnreadCounterStore.get(currentUid,
+                    ChatService.privateConversationKey(currentUid, friend.getUid())));
+            friend.setStatus(OnlineUserManager.isOnline(friend.getUid()) ? 1 : 0);
+        }
         response.setFriends(friends);
         return response;
     }
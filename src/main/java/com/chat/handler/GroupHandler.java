@@ -1,6 +1,8 @@
 package com.chat.handler;
 
+import com.chat.core.ChatService;
 import com.chat.core.GroupService;
+import com.chat.core.UnreadCounterStore;
 import com.chat.protocol.*;
 
 /**
@@ -76,6 +78,10 @@ public class GroupHandler {
         }
 
         var groups = groupService.getGroupList(currentUid);
+        // 未读数来自内存计数，不查库
+        for (GroupListResponse.GroupItem group : groups) {
+            group.setUnreadCount(UnreadCounterStore.get(currentUid, ChatService.groupConversationKey(group.getId())));
+        }
         response.setGroups(groups);
         return response;
     }
@@ -3,6 +3,7 @@ package com.chat.handler;
 import com.chat.core.GroupMemberService;
 import com.chat.protocol.GroupAddMemberRequest;
 import com.chat.protocol.GroupAddMemberResponse;
+import com.chat.utils.ProtocolCodecs;
 import com.google.gson.Gson;
 
 import java.util.Arrays;
@@ -13,7 +14,7 @@ import java.util.List;
  */
 public class GroupMemberHandler {
 
-    private final Gson gson = new Gson();
+    private final Gson gson = ProtocolCodecs.GSON;
     private final GroupMemberService groupMemberService = new GroupMemberService();
 
     /**
@@ -18,6 +18,7 @@ public class ChatHistoryRequest {
 
     private Integer limit = 50;        // 返回条数，默认 50
     private Long beforeTimestamp;      // 拉取早于该时间的消息（用于翻页）
+    private Long beforeId;             // 拉取 ID 小于该值的消息（上一页最早一条的 ID，优先于 beforeTimestamp）
 
     public ChatHistoryRequest() {}
 
@@ -38,4 +39,7 @@ public class ChatHistoryRequest {
 
     public Long getBeforeTimestamp() { return beforeTimestamp; }
     public void setBeforeTimestamp(Long beforeTimestamp) { this.beforeTimestamp = beforeTimestamp; }
+
+    public Long getBeforeId() { return beforeId; }
+    public void setBeforeId(Long beforeId) { this.beforeId = beforeId; }
 }
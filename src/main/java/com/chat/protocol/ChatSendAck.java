@@ -0,0 +1,28 @@
+package com.chat.protocol;
+
+/**
+ * 发送确认：服务器 -> 客户端
+ * 带 requestId 的私聊/群聊发送，在消息持久化（写入服务器日志或数据库）后返回，requestId 与请求相同
+ */
+@SuppressWarnings("unused")
+public class ChatSendAck {
+    private String type = MessageType.CHAT_SEND_ACK;
+    private boolean success;
+    private String message;
+
+    public ChatSendAck() {}
+
+    public ChatSendAck(boolean success, String message) {
+        this.success = success;
+        this.message = message;
+    }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public boolean isSuccess() { return success; }
+    public void setSuccess(boolean success) { this.success = success; }
+
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+}
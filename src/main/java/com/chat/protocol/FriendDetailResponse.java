@@ -15,6 +15,7 @@ public class FriendDetailResponse {
     private Integer gender;      // 0未知 1男 2女
     private String birthday;     // ISO格式日期
     private String tele;         // 电话号码
+    private Integer mutualGroupCount; // 共同所在的群数
 
 
     public FriendDetailResponse() {}
@@ -46,4 +47,7 @@ public class FriendDetailResponse {
     public String getTele() { return tele; }
     public void setTele(String tele) { this.tele = tele; }
 
+    public Integer getMutualGroupCount() { return mutualGroupCount; }
+    public void setMutualGroupCount(Integer mutualGroupCount) { this.mutualGroupCount = mutualGroupCount; }
+
 }
\ No newline at end of file
@@ -22,6 +22,8 @@ public class FriendListResponse {
         private Long uid;
         private String username;
         private String avatarUrl;
+        private Integer unreadCount; // 与该好友私聊的未读数
+        private Integer status;      // 在线状态 0:离线 1:在线
 
         public Long getUid() { return uid; }
         public void setUid(Long uid) { this.uid = uid; }
@@ -29,5 +31,9 @@ public class FriendListResponse {
         public void setUsername(String username) { this.username = username; }
         public String getAvatarUrl() { return avatarUrl; }
         public void setAvatarUrl(String avatarUrl) { this.avatarUrl = avatarUrl; }
+        public Integer getUnreadCount() { return unreadCount; }
+        public void setUnreadCount(Integer unreadCount) { this.unreadCount = unreadCount; }
+        public Integer getStatus() { return status; }
+        public void setStatus(Integer status) { this.status = status; }
     }
 }
@@ -18,6 +18,7 @@ public class GroupDetailResponse {
 
     // 群成员信息
     private Integer memberCount;  // 成员数量
+    private Integer onlineMemberCount; // 在线成员数量
 
     // 当前用户在本群的信息
     private String myNickname;    // 我的群昵称
@@ -109,6 +110,9 @@ public class GroupDetailResponse {
     public Integer getMemberCount() { return memberCount; }
     public void setMemberCount(Integer memberCount) { this.memberCount = memberCount; }
 
+    public Integer getOnlineMemberCount() { return onlineMemberCount; }
+    public void setOnlineMemberCount(Integer onlineMemberCount) { this.onlineMemberCount = onlineMemberCount; }
+
     public String getMyNickname() { return myNickname; }
     public void setMyNickname(String myNickname) { this.myNickname = myNickname; }
 
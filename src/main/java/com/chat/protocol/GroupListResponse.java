@@ -22,6 +22,7 @@ public class GroupListResponse {
         private Long id;
         private String name;
         private String avatar;
+        private Integer unreadCount; // 群聊未读数
 
         public Long getId() { return id; }
         public void setId(Long id) { this.id = id; }
@@ -29,5 +30,7 @@ public class GroupListResponse {
         public void setName(String name) { this.name = name; }
         public String getAvatar() { return avatar; }
         public void setAvatar(String avatar) { this.avatar = avatar; }
+        public Integer getUnreadCount() { return unreadCount; }
+        public void setUnreadCount(Integer unreadCount) { this.unreadCount = unreadCount; }
     }
 }
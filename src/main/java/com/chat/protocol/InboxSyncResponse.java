@@ -0,0 +1,33 @@
+package com.chat.protocol;
+
+import java.util.List;
+
+/**
+ * 离线消息同步：服务器 -> 客户端（登录成功后推送，一次同步可能分成多帧）
+ * 消息跨所有会话按 ID 从旧到新排列，客户端按 groupId / senderId 分到各会话，按 ID 去重
+ */
+@SuppressWarnings("unused")
+public class InboxSyncResponse {
+    private String type = MessageType.INBOX_SYNC;
+    private List<ChatHistoryResponse.HistoryMessageItem> messages;
+    private boolean last;         // 是否为本次同步的最后一帧
+    private boolean hasMore;      // 离线消息超过上限，更早的没有同步，需要按会话拉取历史
+    private Long lastId;          // 本次同步的最后一条消息 ID（最后一帧才有）
+
+    public InboxSyncResponse() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public List<ChatHistoryResponse.HistoryMessageItem> getMessages() { return messages; }
+    public void setMessages(List<ChatHistoryResponse.HistoryMessageItem> messages) { this.messages = messages; }
+
+    public boolean isLast() { return last; }
+    public void setLast(boolean last) { this.last = last; }
+
+    public boolean isHasMore() { return hasMore; }
+    public void setHasMore(boolean hasMore) { this.hasMore = hasMore; }
+
+    public Long getLastId() { return lastId; }
+    public void setLastId(Long lastId) { this.lastId = lastId; }
+}
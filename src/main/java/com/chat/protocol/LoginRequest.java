@@ -8,6 +8,7 @@ public class LoginRequest {
     private String type;     // 协议类型：MessageType.LOGIN_REQUEST
     private Long uid;        // 修改：uid改为Long类型
     private String password;
+    private String compression; // 可选：希望使用的压缩方式（目前只支持 "deflate"）
 
     public LoginRequest() {
         this.type = MessageType.LOGIN_REQUEST;
@@ -54,4 +55,12 @@ public class LoginRequest {
     public void setPassword(String password) {
         this.password = password;
     }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
 }
\ No newline at end of file
@@ -12,6 +12,7 @@ package com.chat.protocol;
  * - timestamp：响应时间戳
  * - avatarUrl：用户头像URL（新增）
  * - username：用户名（新增，用于显示）
+ * - compression：服务器同意的压缩方式；不为空时，本响应之后服务器发出的所有字节都经过该方式压缩
  */
 @SuppressWarnings("unused")
 public class LoginResponse {
@@ -23,6 +24,7 @@ public class LoginResponse {
     private long timestamp;  // 响应时间戳
     private String avatarUrl; // 新增：用户头像URL
     private String username;  // 新增：用户名
+    private String compression; // 可选：同意的压缩方式（deflate）
 
     public LoginResponse() {}
 
@@ -57,4 +59,7 @@ public class LoginResponse {
 
     public String getUsername() { return username; }
     public void setUsername(String username) { this.username = username; }
+
+    public String getCompression() { return compression; }
+    public void setCompression(String compression) { this.compression = compression; }
 }
\ No newline at end of file
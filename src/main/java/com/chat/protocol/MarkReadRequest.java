@@ -0,0 +1,30 @@
+package com.chat.protocol;
+
+/**
+ * 标记已读请求：客户端 -> 服务器
+ * 把自己在会话中的已读游标前进到 messageId（为空时前进到会话最新一条）
+ */
+public class MarkReadRequest {
+    private String type = MessageType.MARK_READ_REQUEST;
+    private String chatType;      // private / group
+    private Long targetUserId;    // 私聊时存在
+    private Long groupId;         // 群聊时存在
+    private Long messageId;       // 已读到的消息 ID
+
+    public MarkReadRequest() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getChatType() { return chatType; }
+    public void setChatType(String chatType) { this.chatType = chatType; }
+
+    public Long getTargetUserId() { return targetUserId; }
+    public void setTargetUserId(Long targetUserId) { this.targetUserId = targetUserId; }
+
+    public Long getGroupId() { return groupId; }
+    public void setGroupId(Long groupId) { this.groupId = groupId; }
+
+    public Long getMessageId() { return messageId; }
+    public void setMessageId(Long messageId) { this.messageId = messageId; }
+}
@@ -0,0 +1,41 @@
+package com.chat.protocol;
+
+/**
+ * 标记已读响应：服务器 -> 客户端
+ */
+public class MarkReadResponse {
+    private String type = MessageType.MARK_READ_RESPONSE;
+    private boolean success;
+    private String message;
+    private String chatType;
+    private Long targetUserId;
+    private Long groupId;
+    private Long lastReadId;      // 当前已读游标
+    private Integer unreadCount;  // 会话中剩余未读数
+
+    public MarkReadResponse() {}
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public boolean isSuccess() { return success; }
+    public void setSuccess(boolean success) { this.success = success; }
+
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+
+    public String getChatType() { return chatType; }
+    public void setChatType(String chatType) { this.chatType = chatType; }
+
+    public Long getTargetUserId() { return targetUserId; }
+    public void setTargetUserId(Long targetUserId) { this.targetUserId = targetUserId; }
+
+    public Long getGroupId() { return groupId; }
+    public void setGroupId(Long groupId) { this.groupId = groupId; }
+
+    public Long getLastReadId() { return lastReadId; }
+    public void setLastReadId(Long lastReadId) { this.lastReadId = lastReadId; }
+
+    public Integer getUnreadCount() { return unreadCount; }
+    public void setUnreadCount(Integer unreadCount) { this.unreadCount = unreadCount; }
+}
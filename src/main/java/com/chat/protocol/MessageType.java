@@ -24,6 +24,9 @@ public final class MessageType {
     public static final String CHAT_GROUP_RECEIVE = "chat_group_receive";     // S -> C
     public static final String CHAT_HISTORY_REQUEST = "chat_history_request"; // C -> S
     public static final String CHAT_HISTORY_RESPONSE = "chat_history_response";// S -> C
+    public static final String CHAT_SEND_ACK = "chat_send_ack";               // S -> C 带 requestId 的发送已持久化
+    public static final String MARK_READ_REQUEST = "mark_read_request";       // C -> S 前进已读游标
+    public static final String MARK_READ_RESPONSE = "mark_read_response";     // S -> C
 
     // 好友系统
     public static final String FRIEND_ADD_REQUEST = "friend_add_request";       // C -> S
@@ -81,4 +84,8 @@ public final class MessageType {
     public static final String FILE_GROUP_SEND = "file_group_send";
     public static final String FILE_PRIVATE_RECEIVE = "file_private_receive";
     public static final String FILE_GROUP_RECEIVE = "file_group_receive";
+
+    // 连接状态通知
+    public static final String SYNC_REQUIRED = "sync_required";   // S -> C 推送被丢弃，客户端需重新拉取
+    public static final String INBOX_SYNC = "inbox_sync";         // S -> C 登录后同步离线期间的消息
 }
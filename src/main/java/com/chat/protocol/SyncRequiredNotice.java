@@ -0,0 +1,33 @@
+package com.chat.protocol;
+
+/**
+ * 需要补拉通知：服务器 -> 客户端
+ * 服务器因客户端接收过慢丢弃了部分推送，客户端应重新拉取会话列表与历史消息
+ */
+@SuppressWarnings("unused")
+public class SyncRequiredNotice {
+    private String type = MessageType.SYNC_REQUIRED;
+    private String reason;        // 原因，如 slow_consumer
+    private int droppedCount;     // 被丢弃的推送条数
+    private long timestamp;
+
+    public SyncRequiredNotice() {}
+
+    public SyncRequiredNotice(String reason, int droppedCount) {
+        this.reason = reason;
+        this.droppedCount = droppedCount;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+
+    public String getReason() { return reason; }
+    public void setReason(String reason) { this.reason = reason; }
+
+    public int getDroppedCount() { return droppedCount; }
+    public void setDroppedCount(int droppedCount) { this.droppedCount = droppedCount; }
+
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+}
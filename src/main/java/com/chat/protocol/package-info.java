@@ -0,0 +1,8 @@
+/**
+ * 客户端与服务器之间的 JSON 协议类
+ * 编译期为本包的协议类生成流式 TypeAdapter（见 com.chat.codegen.ProtocolCodecProcessor），由 ProtocolCodecs 统一使用
+ */
+@GenerateCodecs
+package com.chat.protocol;
+
+import com.chat.codegen.GenerateCodecs;
@@ -0,0 +1,467 @@
+package com.chat.server;
+
+import com.chat.protocol.SyncRequiredNotice;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * 客户端会话 - 每个连接一个有界发送队列 + 一个专属写线程
+ * 其他线程向该客户端推送消息只需入队，不会被慢速客户端阻塞
+ *
+ * 慢速客户端处理：
+ * - send：请求的响应，不可丢弃；积压超过硬上限直接断开
+ * - push：服务器主动推送（消息已落库，客户端可通过历史记录补拉），积压超过软上限时按策略处理：
+ *   drop 丢弃 / coalesce 丢弃并在积压消化后补发一条 sync_required 通知 / disconnect 断开
+ *
+ * 写合并：写线程取到一条消息后，在 chat.session.coalesceMicros 内继续收集后续消息（最多 chat.session.coalesceBytes），
+ * 再统一 flush，繁忙连接上的多条小消息合并成一次写出
+ *
+ * 压缩：登录时协商 deflate 后，登录响应与压缩标记一起入队，写线程写完响应后把输出流换成 DeflaterOutputStream，
+ * 整个连接共用一个 Deflater（后续消息可以引用前面出现过的内容），每批消息写完做一次 SYNC_FLUSH，
+ * 客户端收到的每一批数据都能立即解压
+ */
+public class ClientSession {
+
+    // 关闭标记：写线程取到后写完前面的数据再关闭连接
+    private static final byte[] CLOSE_MARKER = new byte[0];
+    // 压缩标记：写线程取到后，之后写出的数据都经过压缩
+    private static final byte[] COMPRESS_MARKER = new byte[0];
+
+    private OutputStream out;                 // 只由写线程使用（开启压缩后替换为压缩流）
+    private final Closeable connection;
+    private final String remoteAddress;
+    private final BlockingQueue<byte[]> outbound = new ArrayBlockingQueue<>(ServerConfig.SESSION_QUEUE_CAPACITY);
+    private Thread writer;                    // 由 open 在构造之后启动
+
+    // 积压与写入状态
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicInteger droppedPushes = new AtomicInteger();
+    private volatile long writeStartedAt = 0;   // 0 表示当前没有在写
+    private volatile long lastFlushAt = System.currentTimeMillis();
+
+    private volatile Long uid;
+    private volatile boolean closed = false;
+    private volatile boolean binaryFraming = false;   // 连接开头协商为二进制帧后为 true
+    private volatile boolean compactEncoding = false; // 二进制帧下聊天消息使用紧凑编码
+    private volatile boolean compressionRequested = false;
+
+    // 压缩统计（写线程更新）
+    private Deflater deflater;
+    private CountingOutputStream wireCounter;
+    private volatile long compressedRawBytes = 0;
+    private long reportedRawBytes = 0;      // 已计入 ServerMetrics 的部分
+    private long reportedWireBytes = 0;
+
+    private ClientSession(OutputStream out, Closeable connection, String remoteAddress) {
+        this.out = out;
+        this.connection = connection;
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * 创建会话并启动写线程（构造完成后再启动，写线程不会看到未初始化完的会话）
+     */
+    public static ClientSession open(OutputStream out, Closeable connection, String remoteAddress) {
+        ClientSession session = new ClientSession(out, connection, remoteAddress);
+        session.writer = Thread.ofVirtual().name("writer-" + remoteAddress).start(session::writeLoop);
+        return session;
+    }
+
+    public Long getUid() { return uid; }
+    public void setUid(Long uid) { this.uid = uid; }
+
+    public String getRemoteAddress() { return remoteAddress; }
+
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * 切换为二进制帧：回送前导，之后发出的消息都按 [类型][长度][负载] 编码
+     * encoding 为 FrameCodec.ENCODING_COMPACT 时，聊天消息使用紧凑编码
+     * 由传输层在读到客户端前导时调用（早于任何响应）
+     */
+    public void enableBinaryFraming(byte encoding) {
+        if (!binaryFraming) {
+            enqueue(FrameCodec.preface(encoding));
+            compactEncoding = encoding == FrameCodec.ENCODING_COMPACT;
+            binaryFraming = true;
+        }
+    }
+
+    public boolean isBinaryFraming() {
+        return binaryFraming;
+    }
+
+    /**
+     * 发送一条响应（例如登录响应），并在同一次入队中紧跟压缩标记：
+     * 响应本身不压缩，之后入队的数据都经过 deflate 压缩，其它线程的推送不会插在两者之间
+     */
+    public boolean sendThenCompress(String json) {
+        return sendThenCompress(encode(json));
+    }
+
+    /**
+     * 发送一个协议对象并开启压缩（编码规则同 send(Object)）
+     */
+    public boolean sendThenCompress(Object message) {
+        return sendThenCompress(encode(message));
+    }
+
+    /**
+     * 发送一帧已编码好的响应并开启压缩
+     */
+    public boolean sendThenCompress(byte[] frame) {
+        if (closed || compressionRequested) {
+            return send(frame);
+        }
+        if (pendingBytes.get() + frame.length > ServerConfig.SESSION_MAX_PENDING_BYTES
+                || !enqueue(frame, COMPRESS_MARKER)) {
+            disconnectSlowConsumer("响应积压超过上限");
+            return false;
+        }
+        compressionRequested = true;
+        return true;
+    }
+
+    public boolean isCompressed() {
+        return compressionRequested;
+    }
+
+    /**
+     * 本连接的压缩比（压缩前字节数 / 压缩后字节数），未压缩时为 0
+     */
+    public double getCompressionRatio() {
+        CountingOutputStream counter = wireCounter;
+        long wire = counter == null ? 0 : counter.count;
+        return wire == 0 ? 0 : (double) compressedRawBytes / wire;
+    }
+
+    /**
+     * 尚未写出的字节数
+     */
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * 当前这次写入已经持续的时间（毫秒），没有在写时为 0
+     */
+    public long getStallMillis() {
+        long startedAt = writeStartedAt;
+        return startedAt == 0 ? 0 : System.currentTimeMillis() - startedAt;
+    }
+
+    /**
+     * 最近一次成功 flush 的时间
+     */
+    public long getLastFlushAt() {
+        return lastFlushAt;
+    }
+
+    /**
+     * 发送一条响应（按连接的帧格式编码）
+     * 返回：false 表示会话已关闭或客户端积压过多被断开
+     */
+    public boolean send(String json) {
+        return send(encode(json));
+    }
+
+    /**
+     * 发送一个协议对象：协商了紧凑编码且该消息支持时用紧凑帧，否则用 JSON
+     */
+    public boolean send(Object message) {
+        return send(encode(message));
+    }
+
+    /**
+     * 发送一帧已编码好的响应数据
+     */
+    public boolean send(byte[] frame) {
+        if (closed) {
+            return false;
+        }
+        if (pendingBytes.get() + frame.length > ServerConfig.SESSION_MAX_PENDING_BYTES || !enqueue(frame)) {
+            disconnectSlowConsumer("响应积压超过上限");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 推送一条服务器主动消息（按连接的帧格式编码），积压过多时按 chat.session.slowConsumerPolicy 处理
+     */
+    public boolean push(String json) {
+        return push(encode(json));
+    }
+
+    /**
+     * 推送一个协议对象（编码规则同 send(Object)）
+     */
+    public boolean push(Object message) {
+        return push(encode(message));
+    }
+
+    /**
+     * 推送一条扇出消息：直接使用其中已编码好的共享帧
+     */
+    public boolean push(OutboundMessage message) {
+        return push(message.frame(binaryFraming, compactEncoding));
+    }
+
+    /**
+     * 推送一帧已编码好的数据
+     */
+    public boolean push(byte[] frame) {
+        if (closed) {
+            return false;
+        }
+        if (pendingBytes.get() + frame.length <= ServerConfig.SESSION_SOFT_PENDING_BYTES && enqueue(frame)) {
+            return true;
+        }
+
+        switch (ServerConfig.SLOW_CONSUMER_POLICY) {
+            case ServerConfig.POLICY_DISCONNECT -> disconnectSlowConsumer("推送积压超过上限");
+            case ServerConfig.POLICY_COALESCE -> {
+                if (droppedPushes.getAndIncrement() == 0) {
+                    System.err.println("[SESSION] 用户 " + uid + " (" + remoteAddress + ") 推送积压，"
+                            + "暂停推送，积压消化后通知客户端补拉");
+                }
+            }
+            default -> {
+                if (droppedPushes.getAndIncrement() == 0) {
+                    System.err.println("[SESSION] 用户 " + uid + " (" + remoteAddress + ") 推送积压，开始丢弃推送");
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 关闭会话：已入队的数据写完后再断开连接，多次调用无副作用
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (!enqueue(CLOSE_MARKER)) {
+            // 队列已满说明客户端早已跟不上，不再等待
+            abort();
+        }
+    }
+
+    /**
+     * 立即断开（不等待积压数据写出），用于处理卡死的客户端
+     */
+    public void abort() {
+        closed = true;
+        writer.interrupt();
+        try {
+            connection.close();
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 由 SessionMonitor 定期调用：写入卡住太久则断开
+     */
+    void checkStall() {
+        long stall = getStallMillis();
+        if (!closed && stall > ServerConfig.SESSION_MAX_STALL_MS) {
+            disconnectSlowConsumer("写入已阻塞 " + stall + "ms");
+        }
+    }
+
+    private void disconnectSlowConsumer(String reason) {
+        System.err.println("[SESSION] 用户 " + uid + " (" + remoteAddress + ") " + reason
+                + "，积压 " + pendingBytes.get() + " 字节，断开连接");
+        abort();
+    }
+
+    private boolean enqueue(byte[] frame) {
+        return enqueue(frame, null);
+    }
+
+    /**
+     * 入队一帧，marker 非空时紧跟其后一起入队（两者之间不会插入其它帧）；队列放不下时都不入队
+     */
+    private boolean enqueue(byte[] frame, byte[] marker) {
+        synchronized (outbound) {
+            if (outbound.remainingCapacity() < (marker == null ? 1 : 2)) {
+                return false;
+            }
+            pendingBytes.addAndGet(frame.length);
+            outbound.offer(frame);
+            if (marker != null) {
+                outbound.offer(marker);
+            }
+        }
+        return true;
+    }
+
+    private byte[] encode(String json) {
+        return binaryFraming ? FrameCodec.encodeBinary(json) : FrameCodec.encodeLine(json);
+    }
+
+    private byte[] encode(Object message) {
+        return new OutboundMessage(message).frame(binaryFraming, compactEncoding);
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                byte[] frame = outbound.take();
+                if (frame == CLOSE_MARKER) {
+                    break;
+                }
+                writeStartedAt = System.currentTimeMillis();
+                frame = writeBatch(frame);
+                out.flush();
+                writeStartedAt = 0;
+                lastFlushAt = System.currentTimeMillis();
+                reportCompression();
+                if (frame == CLOSE_MARKER) {
+                    break;
+                }
+                notifyDroppedPushes();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("[SESSION] 写入客户端失败: " + remoteAddress + " - " + e.getMessage());
+        } finally {
+            closed = true;
+            writeStartedAt = 0;
+            outbound.clear();
+            pendingBytes.set(0);
+            if (deflater != null) {
+                reportCompression();
+                deflater.end();
+            }
+            try {
+                connection.close();
+            } catch (IOException e) {
+                System.err.println("Error closing connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 写出一批消息：先写 first，再收集已排队或在合并时间窗内到达的消息，直到凑满字节数
+     * 返回最后取到的帧（CLOSE_MARKER 表示需要关闭）
+     */
+    private byte[] writeBatch(byte[] first) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + ServerConfig.SESSION_COALESCE_MICROS * 1_000;
+        long batchBytes = 0;
+        byte[] frame = first;
+        while (true) {
+            if (frame == COMPRESS_MARKER) {
+                startCompression();
+            } else {
+                writeFrame(frame);
+                batchBytes += frame.length;
+            }
+            if (batchBytes >= ServerConfig.SESSION_COALESCE_BYTES) {
+                return frame;
+            }
+            frame = outbound.poll();
+            if (frame == null) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0 || (frame = outbound.poll(wait, TimeUnit.NANOSECONDS)) == null) {
+                    return null;
+                }
+            }
+            if (frame == CLOSE_MARKER) {
+                return frame;
+            }
+        }
+    }
+
+    /**
+     * 把输出流换成压缩流（写线程），之前写入的数据先 flush 出去
+     */
+    private void startCompression() throws IOException {
+        out.flush();
+        deflater = new Deflater(ServerConfig.COMPRESSION_LEVEL);
+        wireCounter = new CountingOutputStream(out);
+        out = new DeflaterOutputStream(wireCounter, deflater, 8 * 1024, true);
+        System.out.println("[SESSION] 用户 " + uid + " (" + remoteAddress + ") 开启 deflate 压缩");
+    }
+
+    /**
+     * 把上次之后新增的压缩前 / 压缩后字节数计入 ServerMetrics（写线程每写完一批调用）
+     */
+    private void reportCompression() {
+        if (deflater == null) {
+            return;
+        }
+        long raw = compressedRawBytes;
+        long wire = wireCounter.count;
+        if (raw != reportedRawBytes || wire != reportedWireBytes) {
+            ServerMetrics.recordCompression(raw - reportedRawBytes, wire - reportedWireBytes);
+            reportedRawBytes = raw;
+            reportedWireBytes = wire;
+        }
+    }
+
+    private void writeFrame(byte[] frame) throws IOException {
+        out.write(frame);
+        pendingBytes.addAndGet(-frame.length);
+        if (deflater != null) {
+            compressedRawBytes += frame.length;
+        }
+    }
+
+    /**
+     * 统计实际写到连接上的字节数（压缩后）
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private volatile long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * coalesce 策略：积压降到软上限的一半以下后，用一条通知代替期间丢弃的全部推送
+     */
+    private void notifyDroppedPushes() {
+        if (!ServerConfig.POLICY_COALESCE.equals(ServerConfig.SLOW_CONSUMER_POLICY)) {
+            droppedPushes.set(0);
+            return;
+        }
+        if (pendingBytes.get() > ServerConfig.SESSION_SOFT_PENDING_BYTES / 2) {
+            return;
+        }
+        int dropped = droppedPushes.getAndSet(0);
+        if (dropped > 0) {
+            System.out.println("[SESSION] 用户 " + uid + " 积压已消化，通知客户端补拉 " + dropped + " 条推送");
+            send(new SyncRequiredNotice("slow_consumer", dropped));
+        }
+    }
+}
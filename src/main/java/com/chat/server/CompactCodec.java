@@ -0,0 +1,430 @@
+package com.chat.server;
+
+import com.chat.protocol.ChatGroupReceive;
+import com.chat.protocol.ChatGroupSend;
+import com.chat.protocol.ChatHistoryRequest;
+import com.chat.protocol.ChatHistoryResponse;
+import com.chat.protocol.ChatPrivateReceive;
+import com.chat.protocol.ChatPrivateSend;
+import com.chat.protocol.ContentType;
+import com.chat.protocol.MessageType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 紧凑二进制编码 - 只用于最频繁的聊天消息（私聊/群聊收发、历史记录请求与分页）
+ *
+ * 负载格式：[1 字节消息编号][字段...]
+ * - 不传字段名和 type 字符串，由消息编号确定字段布局
+ * - 可为空的字段用一个存在位图（varint）标记，缺省字段不占字节
+ * - 整数为 zigzag varint，字符串为 varint 长度 + UTF-8 字节
+ * - contentType 常用取值编码为 1 字节，其他取值写原字符串
+ *
+ * 其余消息类型仍以 JSON 帧收发。
+ */
+public final class CompactCodec {
+    private CompactCodec() {}
+
+    // 消息编号
+    public static final int MSG_CHAT_PRIVATE_SEND = 1;
+    public static final int MSG_CHAT_PRIVATE_RECEIVE = 2;
+    public static final int MSG_CHAT_GROUP_SEND = 3;
+    public static final int MSG_CHAT_GROUP_RECEIVE = 4;
+    public static final int MSG_CHAT_HISTORY_REQUEST = 5;
+    public static final int MSG_CHAT_HISTORY_RESPONSE = 6;
+
+    // contentType 编码，下标即编码，0 表示后面跟原字符串
+    private static final String[] CONTENT_TYPES = {
+            null, ContentType.TEXT, ContentType.IMAGE, ContentType.FILE, ContentType.AUDIO, ContentType.VIDEO
+    };
+
+    /**
+     * 消息编号对应的协议 type，不支持的编号返回 null
+     */
+    public static String messageType(byte[] payload) {
+        if (payload.length == 0) {
+            return null;
+        }
+        switch (payload[0]) {
+            case MSG_CHAT_PRIVATE_SEND: return MessageType.CHAT_PRIVATE_SEND;
+            case MSG_CHAT_PRIVATE_RECEIVE: return MessageType.CHAT_PRIVATE_RECEIVE;
+            case MSG_CHAT_GROUP_SEND: return MessageType.CHAT_GROUP_SEND;
+            case MSG_CHAT_GROUP_RECEIVE: return MessageType.CHAT_GROUP_RECEIVE;
+            case MSG_CHAT_HISTORY_REQUEST: return MessageType.CHAT_HISTORY_REQUEST;
+            case MSG_CHAT_HISTORY_RESPONSE: return MessageType.CHAT_HISTORY_RESPONSE;
+            default: return null;
+        }
+    }
+
+    // ===================== 编码 =====================
+
+    /**
+     * 编码一条消息，不支持紧凑编码的消息返回 null（调用方改用 JSON）
+     */
+    public static byte[] encode(Object message) {
+        Out out = new Out();
+        if (message instanceof ChatPrivateSend m) {
+            out.writeByte(MSG_CHAT_PRIVATE_SEND);
+            writeChatBody(out, null, m.getFromUserId(), m.getToUserId(), m.getContent(), m.getContentType(),
+                    m.getFileUrl(), m.getFileSize(), m.getFileName(), m.getTimestamp(), null, null, null);
+        } else if (message instanceof ChatPrivateReceive m) {
+            out.writeByte(MSG_CHAT_PRIVATE_RECEIVE);
+            writeChatBody(out, null, m.getFromUserId(), m.getToUserId(), m.getContent(), m.getContentType(),
+                    m.getFileUrl(), m.getFileSize(), m.getFileName(), m.getTimestamp(), null, m.getId(), m.getIsRead());
+        } else if (message instanceof ChatGroupSend m) {
+            out.writeByte(MSG_CHAT_GROUP_SEND);
+            writeChatBody(out, m.getGroupId(), m.getFromUserId(), null, m.getContent(), m.getContentType(),
+                    m.getFileUrl(), m.getFileSize(), m.getFileName(), m.getTimestamp(), null, null, null);
+        } else if (message instanceof ChatGroupReceive m) {
+            out.writeByte(MSG_CHAT_GROUP_RECEIVE);
+            writeChatBody(out, m.getGroupId(), m.getFromUserId(), null, m.getContent(), m.getContentType(),
+                    m.getFileUrl(), m.getFileSize(), m.getFileName(), m.getTimestamp(), null, m.getId(), m.getIsRead());
+        } else if (message instanceof ChatHistoryRequest m) {
+            out.writeByte(MSG_CHAT_HISTORY_REQUEST);
+            out.writePresence(m.getChatType(), m.getTargetUserId(), m.getGroupId(), m.getLimit(), m.getBeforeTimestamp(),
+                    m.getBeforeId());
+            out.writeString(m.getChatType());
+            out.writeLong(m.getTargetUserId());
+            out.writeLong(m.getGroupId());
+            out.writeLong(m.getLimit() == null ? null : m.getLimit().longValue());
+            out.writeLong(m.getBeforeTimestamp());
+            out.writeLong(m.getBeforeId());
+        } else if (message instanceof ChatHistoryResponse m) {
+            out.writeByte(MSG_CHAT_HISTORY_RESPONSE);
+            out.writePresence(m.getChatType(), m.getMessage(), m.getMessages());
+            out.writeByte(m.isSuccess() ? 1 : 0);
+            out.writeString(m.getChatType());
+            out.writeString(m.getMessage());
+            if (m.getMessages() != null) {
+                out.writeVarLong(m.getMessages().size());
+                for (ChatHistoryResponse.HistoryMessageItem item : m.getMessages()) {
+                    writeChatBody(out, item.getGroupId(), item.getSenderId(), item.getReceiverId(), item.getContent(),
+                            item.getContentType(), item.getFileUrl(), item.getFileSize(), item.getFileName(),
+                            null, item.getTimestamp(), item.getId(), item.getIsRead());
+                }
+            }
+        } else {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 聊天消息体：私聊/群聊收发和历史记录条目共用一个布局，没有的字段不占字节
+     * 时间戳：实时消息为毫秒数，历史记录为数据库 DATETIME 字符串
+     */
+    private static void writeChatBody(Out out, Long groupId, Long fromUserId, Long toUserId, String content,
+                                      String contentType, String fileUrl, Long fileSize, String fileName,
+                                      Long timestamp, String timeText, Long id, Integer isRead) {
+        out.writePresence(groupId, fromUserId, toUserId, content, contentType, fileUrl, fileSize, fileName,
+                timestamp, timeText, id, isRead);
+        out.writeLong(groupId);
+        out.writeLong(fromUserId);
+        out.writeLong(toUserId);
+        out.writeString(content);
+        if (contentType != null) {
+            int code = Arrays.asList(CONTENT_TYPES).indexOf(contentType);
+            if (code > 0) {
+                out.writeByte(code);
+            } else {
+                out.writeByte(0);
+                out.writeString(contentType);
+            }
+        }
+        out.writeString(fileUrl);
+        out.writeLong(fileSize);
+        out.writeString(fileName);
+        out.writeLong(timestamp);
+        out.writeString(timeText);
+        out.writeLong(id);
+        out.writeLong(isRead == null ? null : isRead.longValue());
+    }
+
+    // ===================== 解码 =====================
+
+    /**
+     * 解码一条消息；编号不支持或数据不完整时抛出 IOException
+     */
+    public static Object decode(byte[] payload) throws IOException {
+        In in = new In(payload);
+        int code = in.readByte();
+        switch (code) {
+            case MSG_CHAT_PRIVATE_SEND -> {
+                ChatBody b = readChatBody(in);
+                ChatPrivateSend m = new ChatPrivateSend();
+                m.setType(MessageType.CHAT_PRIVATE_SEND);
+                m.setFromUserId(b.fromUserId);
+                m.setToUserId(b.toUserId);
+                m.setContent(b.content);
+                m.setContentType(b.contentType);
+                m.setFileUrl(b.fileUrl);
+                m.setFileSize(b.fileSize);
+                m.setFileName(b.fileName);
+                if (b.timestamp != null) {
+                    m.setTimestamp(b.timestamp);
+                }
+                return m;
+            }
+            case MSG_CHAT_PRIVATE_RECEIVE -> {
+                ChatBody b = readChatBody(in);
+                ChatPrivateReceive m = new ChatPrivateReceive();
+                m.setType(MessageType.CHAT_PRIVATE_RECEIVE);
+                m.setFromUserId(b.fromUserId);
+                m.setToUserId(b.toUserId);
+                m.setContent(b.content);
+                m.setContentType(b.contentType);
+                m.setFileUrl(b.fileUrl);
+                m.setFileSize(b.fileSize);
+                m.setFileName(b.fileName);
+                if (b.timestamp != null) {
+                    m.setTimestamp(b.timestamp);
+                }
+                m.setId(b.id);
+                m.setIsRead(b.isRead);
+                return m;
+            }
+            case MSG_CHAT_GROUP_SEND -> {
+                ChatBody b = readChatBody(in);
+                ChatGroupSend m = new ChatGroupSend();
+                m.setGroupId(b.groupId);
+                m.setFromUserId(b.fromUserId);
+                m.setContent(b.content);
+                if (b.contentType != null) {
+                    m.setContentType(b.contentType);
+                }
+                m.setFileUrl(b.fileUrl);
+                m.setFileSize(b.fileSize);
+                m.setFileName(b.fileName);
+                if (b.timestamp != null) {
+                    m.setTimestamp(b.timestamp);
+                }
+                return m;
+            }
+            case MSG_CHAT_GROUP_RECEIVE -> {
+                ChatBody b = readChatBody(in);
+                ChatGroupReceive m = new ChatGroupReceive();
+                m.setGroupId(b.groupId);
+                m.setFromUserId(b.fromUserId);
+                m.setContent(b.content);
+                if (b.contentType != null) {
+                    m.setContentType(b.contentType);
+                }
+                m.setFileUrl(b.fileUrl);
+                m.setFileSize(b.fileSize);
+                m.setFileName(b.fileName);
+                if (b.timestamp != null) {
+                    m.setTimestamp(b.timestamp);
+                }
+                m.setId(b.id);
+                m.setIsRead(b.isRead);
+                return m;
+            }
+            case MSG_CHAT_HISTORY_REQUEST -> {
+                int presence = (int) in.readVarLong();
+                ChatHistoryRequest m = new ChatHistoryRequest();
+                m.setChatType(in.readString(presence, 0));
+                m.setTargetUserId(in.readLong(presence, 1));
+                m.setGroupId(in.readLong(presence, 2));
+                Long limit = in.readLong(presence, 3);
+                m.setLimit(limit == null ? null : limit.intValue());
+                m.setBeforeTimestamp(in.readLong(presence, 4));
+                m.setBeforeId(in.readLong(presence, 5));
+                return m;
+            }
+            case MSG_CHAT_HISTORY_RESPONSE -> {
+                int presence = (int) in.readVarLong();
+                ChatHistoryResponse m = new ChatHistoryResponse();
+                m.setSuccess(in.readByte() != 0);
+                m.setChatType(in.readString(presence, 0));
+                m.setMessage(in.readString(presence, 1));
+                if ((presence & (1 << 2)) != 0) {
+                    int count = (int) in.readVarLong();
+                    List<ChatHistoryResponse.HistoryMessageItem> items = new ArrayList<>(Math.min(count, 1024));
+                    for (int i = 0; i < count; i++) {
+                        ChatBody b = readChatBody(in);
+                        ChatHistoryResponse.HistoryMessageItem item = new ChatHistoryResponse.HistoryMessageItem();
+                        item.setId(b.id);
+                        item.setSenderId(b.fromUserId);
+                        item.setReceiverId(b.toUserId);
+                        item.setGroupId(b.groupId);
+                        item.setContent(b.content);
+                        if (b.contentType != null) {
+                            item.setContentType(b.contentType);
+                        }
+                        item.setFileUrl(b.fileUrl);
+                        item.setFileSize(b.fileSize);
+                        item.setFileName(b.fileName);
+                        item.setTimestamp(b.timeText);
+                        item.setIsRead(b.isRead);
+                        items.add(item);
+                    }
+                    m.setMessages(items);
+                }
+                return m;
+            }
+            default -> throw new IOException("不支持的紧凑消息编号: " + code);
+        }
+    }
+
+    private static ChatBody readChatBody(In in) throws IOException {
+        int presence = (int) in.readVarLong();
+        ChatBody b = new ChatBody();
+        b.groupId = in.readLong(presence, 0);
+        b.fromUserId = in.readLong(presence, 1);
+        b.toUserId = in.readLong(presence, 2);
+        b.content = in.readString(presence, 3);
+        if ((presence & (1 << 4)) != 0) {
+            int code = in.readByte();
+            if (code == 0) {
+                b.contentType = in.readString();
+            } else if (code < CONTENT_TYPES.length) {
+                b.contentType = CONTENT_TYPES[code];
+            } else {
+                throw new IOException("未知的 contentType 编码: " + code);
+            }
+        }
+        b.fileUrl = in.readString(presence, 5);
+        b.fileSize = in.readLong(presence, 6);
+        b.fileName = in.readString(presence, 7);
+        b.timestamp = in.readLong(presence, 8);
+        b.timeText = in.readString(presence, 9);
+        b.id = in.readLong(presence, 10);
+        Long isRead = in.readLong(presence, 11);
+        b.isRead = isRead == null ? null : isRead.intValue();
+        return b;
+    }
+
+    private static final class ChatBody {
+        Long groupId;
+        Long fromUserId;
+        Long toUserId;
+        String content;
+        String contentType;
+        String fileUrl;
+        Long fileSize;
+        String fileName;
+        Long timestamp;
+        String timeText;
+        Long id;
+        Integer isRead;
+    }
+
+    // ===================== 读写缓冲 =====================
+
+    private static final class Out {
+        private byte[] buf = new byte[128];
+        private int size = 0;
+
+        void writeByte(int b) {
+            if (size == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[size++] = (byte) b;
+        }
+
+        void writeVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                writeByte((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            writeByte((int) v);
+        }
+
+        /**
+         * 存在位图：第 i 位为 1 表示第 i 个字段不为 null
+         */
+        void writePresence(Object... fields) {
+            long bits = 0;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] != null) {
+                    bits |= 1L << i;
+                }
+            }
+            writeVarLong(bits);
+        }
+
+        /**
+         * 写可空整数（null 不写，由存在位图表示）
+         */
+        void writeLong(Long v) {
+            if (v != null) {
+                writeVarLong((v << 1) ^ (v >> 63));
+            }
+        }
+
+        /**
+         * 写可空字符串（null 不写，由存在位图表示）
+         */
+        void writeString(String s) {
+            if (s == null) {
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            if (size + bytes.length > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + bytes.length));
+            }
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+
+    private static final class In {
+        private final byte[] buf;
+        private int pos = 0;
+
+        In(byte[] buf) {
+            this.buf = buf;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= buf.length) {
+                throw new EOFException("紧凑消息数据不完整");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IOException("varint 过长");
+        }
+
+        Long readLong(int presence, int bit) throws IOException {
+            if ((presence & (1 << bit)) == 0) {
+                return null;
+            }
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String readString(int presence, int bit) throws IOException {
+            return (presence & (1 << bit)) == 0 ? null : readString();
+        }
+
+        String readString() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > buf.length - pos) {
+                throw new EOFException("紧凑消息数据不完整");
+            }
+            String s = new String(buf, pos, (int) length, StandardCharsets.UTF_8);
+            pos += (int) length;
+            return s;
+        }
+    }
+}
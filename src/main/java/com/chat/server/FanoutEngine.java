@@ -0,0 +1,116 @@
+package com.chat.server;
+
+import com.chat.utils.OnlineUserManager;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 群聊扇出引擎
+ * 调用方传入已与在线用户位图求过交集的在线成员 ID（见 OnlineUserManager.onlineAmong），离线成员不再逐个查找会话
+ * - 在线成员少于 chat.fanout.parallelThreshold：在调用线程直接推送
+ * - 否则：在线成员按 chat.fanout.shardSize 分片，在有界的 ForkJoinPool 上并行推送，调用方立即返回
+ *   （消息已落库，发送方不必等最后一个成员入队）
+ * 同一个群的扇出按提交顺序依次进行，保证每个成员收到的消息顺序与发送顺序一致。
+ * 推送只是把共享帧放进各成员的发送队列，不会被慢速客户端阻塞。
+ */
+public class FanoutEngine {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, ServerConfig.FANOUT_PARALLELISM),
+            pool -> {
+                var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("fanout-" + thread.getPoolIndex());
+                return thread;
+            }, null, true);
+
+    // 超过该耗时的扇出单独打印一行
+    private static final long SLOW_FANOUT_MICROS = 100_000;
+
+    // groupId -> 该群最后一次尚未完成的并行扇出（完成后移除）
+    private static final Map<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 向群的在线成员推送一条消息（跳过 excludeUserId，通常是发送者本人）
+     * recipients：在线成员 ID，memberCount：群成员总数（只用于统计）
+     */
+    public static void broadcast(Long groupId, long[] recipients, int memberCount, Long excludeUserId,
+                                 OutboundMessage message) {
+        long startedAt = System.nanoTime();
+        boolean parallel = recipients.length >= ServerConfig.FANOUT_PARALLEL_THRESHOLD;
+        long exclude = excludeUserId != null ? excludeUserId : -1;
+
+        // 小群且没有进行中的扇出时在调用线程推送：compute 里只登记占位，推送在 compute 之外进行，
+        // 期间同一个群的后续扇出排在占位之后
+        CompletableFuture<Void> inline = parallel ? null : new CompletableFuture<>();
+        CompletableFuture<Void> tail = pending.compute(groupId, (id, previous) -> {
+            if (previous == null && inline != null) {
+                return inline;
+            }
+            CompletableFuture<Void> after = previous != null ? previous : CompletableFuture.completedFuture(null);
+            return after.handle((v, e) -> null)
+                    .thenComposeAsync(v -> deliverSharded(groupId, recipients, memberCount, exclude, message, startedAt),
+                            POOL);
+        });
+        tail.whenComplete((v, e) -> pending.remove(groupId, tail));
+        if (tail == inline) {
+            try {
+                int delivered = deliver(recipients, 0, recipients.length, exclude, message);
+                finish(groupId, memberCount, delivered, startedAt);
+            } finally {
+                inline.complete(null);
+            }
+        }
+    }
+
+    private static CompletableFuture<Void> deliverSharded(Long groupId, long[] recipients, int memberCount,
+                                                          long exclude, OutboundMessage message, long startedAt) {
+        int shardSize = Math.max(1, ServerConfig.FANOUT_SHARD_SIZE);
+        int shards = (recipients.length + shardSize - 1) / shardSize;
+        AtomicInteger delivered = new AtomicInteger();
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[shards];
+        for (int i = 0; i < shards; i++) {
+            int from = i * shardSize;
+            int to = Math.min(from + shardSize, recipients.length);
+            tasks[i] = CompletableFuture.runAsync(
+                    () -> delivered.addAndGet(deliver(recipients, from, to, exclude, message)), POOL);
+        }
+        return CompletableFuture.allOf(tasks).whenComplete((v, e) -> {
+            if (e != null) {
+                System.err.println("[FANOUT] 群 " + groupId + " 扇出出错: " + e.getMessage());
+            }
+            finish(groupId, memberCount, delivered.get(), startedAt);
+        });
+    }
+
+    /**
+     * 推送给 recipients[from, to) 中的成员，返回推送人数
+     */
+    private static int deliver(long[] recipients, int from, int to, long exclude, OutboundMessage message) {
+        int delivered = 0;
+        for (int i = from; i < to; i++) {
+            long memberId = recipients[i];
+            if (memberId == exclude) {
+                continue;
+            }
+            ClientSession session = OnlineUserManager.getSession(memberId);
+            if (session != null && session.push(message)) {
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * 记录扇出耗时（汇总在 ServerMetrics 的定期输出中），只逐条打印慢扇出
+     */
+    private static void finish(Long groupId, int members, int delivered, long startedAt) {
+        long micros = (System.nanoTime() - startedAt) / 1_000;
+        ServerMetrics.recordFanout(groupId, micros);
+        if (micros >= SLOW_FANOUT_MICROS) {
+            System.out.println("[FANOUT] 群 " + groupId + " 推送 " + delivered + "/" + members + " 人，用时 " + micros + "us");
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.chat.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 帧格式（同一端口兼容两种，按连接的第一个字节区分）
+ *
+ * - 文本帧（默认）：一行 JSON + '\n'
+ * - 二进制帧：客户端连接后先发送 4 字节前导 0xC3 'C' 'H' [编码]，服务器原样回送表示已切换；
+ *   之后双方的每一帧为 [1 字节帧类型][4 字节大端负载长度][负载]
+ *   按长度一次分配，不认识的帧类型直接跳过负载，不做任何解码
+ *   编码 0x01：服务器发出的消息都用 JSON 帧；0x02：聊天消息改用紧凑帧（见 CompactCodec），其余仍为 JSON 帧
+ */
+public final class FrameCodec {
+    private FrameCodec() {}
+
+    // 二进制帧前导（0xC3 不可能是一行 JSON 的第一个字节），最后一个字节为编码
+    public static final byte[] BINARY_PREFACE = {(byte) 0xC3, 'C', 'H', 0x01};
+
+    // 前导中的编码
+    public static final byte ENCODING_JSON = 0x01;
+    public static final byte ENCODING_COMPACT = 0x02;
+
+    // 二进制帧头：类型 + 长度
+    public static final int HEADER_BYTES = 5;
+
+    // 帧类型
+    public static final byte KIND_JSON = 0x01;      // 负载为一条 UTF-8 JSON 消息
+    public static final byte KIND_COMPACT = 0x02;   // 负载为一条紧凑编码的聊天消息
+
+    /**
+     * 连接的第一个字节是否为二进制前导
+     */
+    public static boolean isBinaryPreface(int firstByte) {
+        return (byte) firstByte == BINARY_PREFACE[0];
+    }
+
+    /**
+     * 校验完整的前导（包括编码是否支持）
+     */
+    public static boolean isBinaryPreface(byte[] bytes) {
+        for (int i = 0; i < BINARY_PREFACE.length - 1; i++) {
+            if (bytes[i] != BINARY_PREFACE[i]) {
+                return false;
+            }
+        }
+        byte encoding = prefaceEncoding(bytes);
+        return encoding == ENCODING_JSON || encoding == ENCODING_COMPACT;
+    }
+
+    /**
+     * 前导中的编码
+     */
+    public static byte prefaceEncoding(byte[] preface) {
+        return preface[BINARY_PREFACE.length - 1];
+    }
+
+    /**
+     * 指定编码的前导（服务器回送）
+     */
+    public static byte[] preface(byte encoding) {
+        byte[] preface = BINARY_PREFACE.clone();
+        preface[preface.length - 1] = encoding;
+        return preface;
+    }
+
+    /**
+     * 服务器能处理的帧类型，其余类型的帧跳过
+     */
+    public static boolean isSupportedKind(byte kind) {
+        return kind == KIND_JSON || kind == KIND_COMPACT;
+    }
+
+    /**
+     * 从帧头中读出负载长度
+     */
+    public static int payloadLength(byte[] header) {
+        return ((header[1] & 0xFF) << 24) | ((header[2] & 0xFF) << 16)
+                | ((header[3] & 0xFF) << 8) | (header[4] & 0xFF);
+    }
+
+    /**
+     * 文本帧：JSON + '\n'
+     */
+    public static byte[] encodeLine(String json) {
+        return (json + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 二进制帧：帧头 + 负载
+     */
+    public static byte[] encodeBinary(byte kind, byte[] payload) {
+        byte[] frame = new byte[HEADER_BYTES + payload.length];
+        frame[0] = kind;
+        frame[1] = (byte) (payload.length >>> 24);
+        frame[2] = (byte) (payload.length >>> 16);
+        frame[3] = (byte) (payload.length >>> 8);
+        frame[4] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, HEADER_BYTES, payload.length);
+        return frame;
+    }
+
+    /**
+     * 二进制 JSON 帧
+     */
+    public static byte[] encodeBinary(String json) {
+        return encodeBinary(KIND_JSON, json.getBytes(StandardCharsets.UTF_8));
+    }
+}
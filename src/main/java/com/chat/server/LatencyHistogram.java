@@ -0,0 +1,60 @@
+package com.chat.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图（微秒），按 2 的幂分桶：第 i 个桶统计 [2^i, 2^(i+1)) 微秒，桶 0 包含 0~1 微秒
+ * 无锁、固定内存，分位数取所在桶的上界（误差在 2 倍以内，足够观察趋势和长尾）
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long micros) {
+        long v = Math.max(0, micros);
+        int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, v)));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 分位数（p 取 0~1），没有数据时为 0
+     */
+    public long percentile(double p) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * p));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min((1L << (i + 1)) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * 摘要（一行）
+     */
+    public String summary() {
+        return "n=" + getCount() + " p50=" + percentile(0.50) + "us p99=" + percentile(0.99)
+                + "us max=" + getMax() + "us";
+    }
+}
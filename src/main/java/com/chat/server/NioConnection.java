@@ -0,0 +1,423 @@
+package com.chat.server;
+
+import com.chat.handler.ClientHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一个非阻塞客户端连接
+ * - 读：在事件循环线程中切帧（按第一个字节区分按行 JSON / 二进制帧，见 FrameCodec），
+ *   帧交给工作线程池，按到达顺序串行调用 ClientHandler
+ * - 写：会话写线程写入的数据先排队，flush 时交给事件循环线程用一次聚集写（gathering write）写出；
+ *   排队未写出的数据超过 chat.nio.outboundBytes 时写入方阻塞，直到事件循环真正写出（与阻塞 socket 一致，
+ *   会话的积压统计和写入卡死检测因此照常生效）
+ */
+public class NioConnection implements Closeable {
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final Executor workers;
+    private final String remoteAddress;
+    private ClientHandler handler;   // 由 open 在构造之后设置
+    private SelectionKey key;
+
+    // 读：帧格式由连接的第一个字节决定
+    private static final int FRAMING_UNKNOWN = 0;
+    private static final int FRAMING_LINE = 1;
+    private static final int FRAMING_BINARY = 2;
+    private int framing = FRAMING_UNKNOWN;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(ServerConfig.NIO_READ_BUFFER_BYTES);
+
+    // 按行：当前未完成的一行
+    private byte[] frame = new byte[256];
+    private int frameLength = 0;
+
+    // 二进制：前导/帧头、按长度分配的负载、需要跳过的字节数
+    private final byte[] header = new byte[FrameCodec.HEADER_BYTES];
+    private int headerLength = 0;
+    private boolean prefaceReceived = false;
+    private byte payloadKind;
+    private byte[] payload;
+    private int payloadLength = 0;
+    private int skipRemaining = 0;
+
+    // 已切好、等待分发的帧，同一连接内串行处理
+    private final Queue<InboundFrame> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean dispatching = new AtomicBoolean(false);
+
+    // 写：等待写出的数据
+    private static final int MAX_GATHER = 64;
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    // 写入方是虚拟线程（会话写线程），等待时用 ReentrantLock 而不是对象监视器，不会固定载体线程
+    private final ReentrantLock outboundLock = new ReentrantLock();
+    private final Condition outboundWritten = outboundLock.newCondition();
+    private long outboundBytes = 0;   // 排队未写出的字节数，由 outboundLock 保护
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];   // 只在事件循环线程使用
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final AtomicBoolean disconnected = new AtomicBoolean(false);
+
+    private NioConnection(NioEventLoop loop, SocketChannel channel, Executor workers, String remoteAddress) {
+        this.loop = loop;
+        this.channel = channel;
+        this.workers = workers;
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * 创建连接并接上 ClientHandler（构造完成后再把自身交出去）
+     */
+    public static NioConnection open(NioEventLoop loop, SocketChannel channel, Executor workers, String remoteAddress) {
+        NioConnection connection = new NioConnection(loop, channel, workers, remoteAddress);
+        connection.handler = new ClientHandler(connection.new ChannelOutputStream(), connection, remoteAddress);
+        return connection;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    // ===================== 读 =====================
+
+    /**
+     * 读就绪（事件循环线程）
+     */
+    void onReadable() {
+        try {
+            int n;
+            while ((n = channel.read(readBuffer)) > 0) {
+                readBuffer.flip();
+                decodeFrames();
+                readBuffer.clear();
+                if (closed.get()) {
+                    return;
+                }
+            }
+            if (n < 0) {
+                close();
+            }
+        } catch (IOException e) {
+            System.out.println("[INFO] 客户端断开: " + remoteAddress + " - " + e.getMessage());
+            close();
+        }
+    }
+
+    private void decodeFrames() {
+        if (framing == FRAMING_UNKNOWN && readBuffer.hasRemaining()) {
+            framing = FrameCodec.isBinaryPreface(readBuffer.get(readBuffer.position()))
+                    ? FRAMING_BINARY : FRAMING_LINE;
+        }
+        if (framing == FRAMING_BINARY) {
+            decodeBinaryFrames();
+        } else {
+            decodeLines();
+        }
+    }
+
+    private void decodeLines() {
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                int end = frameLength;
+                if (end > 0 && frame[end - 1] == '\r') {
+                    end--;
+                }
+                // UTF-8 解码放到工作线程
+                inbound.add(new InboundFrame(FrameCodec.KIND_JSON, Arrays.copyOf(frame, end)));
+                frameLength = 0;
+                scheduleDispatch();
+            } else {
+                if (frameLength == ServerConfig.MAX_FRAME_BYTES) {
+                    System.err.println("[NIO] 客户端 " + remoteAddress + " 单帧超过 "
+                            + ServerConfig.MAX_FRAME_BYTES + " 字节，断开连接");
+                    close();
+                    return;
+                }
+                if (frameLength == frame.length) {
+                    frame = Arrays.copyOf(frame, Math.min(frame.length * 2, ServerConfig.MAX_FRAME_BYTES));
+                }
+                frame[frameLength++] = b;
+            }
+        }
+    }
+
+    /**
+     * 二进制帧：先读前导，之后每帧读满帧头再按长度分配负载；不支持的帧类型只跳过字节
+     */
+    private void decodeBinaryFrames() {
+        while (readBuffer.hasRemaining()) {
+            if (skipRemaining > 0) {
+                int n = Math.min(skipRemaining, readBuffer.remaining());
+                readBuffer.position(readBuffer.position() + n);
+                skipRemaining -= n;
+                continue;
+            }
+
+            if (payload == null) {
+                int need = prefaceReceived ? FrameCodec.HEADER_BYTES : FrameCodec.BINARY_PREFACE.length;
+                int n = Math.min(need - headerLength, readBuffer.remaining());
+                readBuffer.get(header, headerLength, n);
+                headerLength += n;
+                if (headerLength < need) {
+                    return;
+                }
+                headerLength = 0;
+
+                if (!prefaceReceived) {
+                    if (!FrameCodec.isBinaryPreface(header)) {
+                        System.err.println("[NIO] 客户端 " + remoteAddress + " 二进制前导无效，断开连接");
+                        close();
+                        return;
+                    }
+                    prefaceReceived = true;
+                    handler.enableBinaryFraming(FrameCodec.prefaceEncoding(header));
+                    continue;
+                }
+
+                int length = FrameCodec.payloadLength(header);
+                if (length < 0 || length > ServerConfig.MAX_FRAME_BYTES) {
+                    System.err.println("[NIO] 客户端 " + remoteAddress + " 帧长度 " + length + " 超出限制，断开连接");
+                    close();
+                    return;
+                }
+                if (!FrameCodec.isSupportedKind(header[0])) {
+                    skipRemaining = length;
+                    continue;
+                }
+                payloadKind = header[0];
+                payload = new byte[length];
+                payloadLength = 0;
+            }
+
+            int n = Math.min(payload.length - payloadLength, readBuffer.remaining());
+            readBuffer.get(payload, payloadLength, n);
+            payloadLength += n;
+            if (payloadLength == payload.length) {
+                inbound.add(new InboundFrame(payloadKind, payload));
+                payload = null;
+                scheduleDispatch();
+            }
+        }
+    }
+
+    private void scheduleDispatch() {
+        if (dispatching.compareAndSet(false, true)) {
+            workers.execute(this::dispatchInbound);
+        }
+    }
+
+    /**
+     * 在工作线程中依次处理收到的帧（同一连接任意时刻只有一个线程在处理）
+     */
+    private void dispatchInbound() {
+        do {
+            InboundFrame next;
+            while ((next = inbound.poll()) != null) {
+                if (closed.get()) {
+                    inbound.clear();
+                    break;
+                }
+                if (!handler.handleFrame(next.kind, next.payload)) {
+                    close();
+                }
+            }
+            if (closed.get() && disconnected.compareAndSet(false, true)) {
+                handler.onDisconnect();
+            }
+            dispatching.set(false);
+        } while ((!inbound.isEmpty() || (closed.get() && !disconnected.get()))
+                && dispatching.compareAndSet(false, true));
+    }
+
+    // ===================== 写 =====================
+
+    /**
+     * 排队一段数据；已排队的数据超过上限时先等事件循环写出（单段超过上限时等队列写空）
+     */
+    private void enqueue(byte[] data, int off, int len) throws IOException {
+        outboundLock.lock();
+        try {
+            while (!closed.get() && outboundBytes > 0 && outboundBytes + len > ServerConfig.NIO_OUTBOUND_BYTES) {
+                scheduleFlush();
+                try {
+                    outboundWritten.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("等待写出时被中断");
+                }
+            }
+            if (closed.get()) {
+                throw new IOException("连接已关闭");
+            }
+            outboundBytes += len;
+        } finally {
+            outboundLock.unlock();
+        }
+        outbound.add(ByteBuffer.wrap(Arrays.copyOfRange(data, off, off + len)));
+    }
+
+    /**
+     * 事件循环写出了 written 字节，唤醒等待的写入方
+     */
+    private void onWritten(long written) {
+        if (written == 0) {
+            return;
+        }
+        outboundLock.lock();
+        try {
+            outboundBytes -= written;
+            outboundWritten.signalAll();
+        } finally {
+            outboundLock.unlock();
+        }
+    }
+
+    /**
+     * 通知事件循环写出已排队的数据
+     */
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flushOutbound);
+        }
+    }
+
+    /**
+     * 写就绪（事件循环线程）
+     */
+    void onWritable() {
+        flushOutbound();
+    }
+
+    private void flushOutbound() {
+        flushScheduled.set(false);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            while (true) {
+                // 一次系统调用写出多段排队的数据
+                int n = 0;
+                for (ByteBuffer buf : outbound) {
+                    gather[n++] = buf;
+                    if (n == MAX_GATHER) {
+                        break;
+                    }
+                }
+                if (n == 0) {
+                    break;
+                }
+                channel.write(gather, 0, n);
+                long written = 0;
+                for (int i = 0; i < n; i++) {
+                    if (gather[i].hasRemaining()) {
+                        // 内核发送缓冲区已满，等待写就绪
+                        Arrays.fill(gather, 0, n, null);
+                        onWritten(written);
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    written += gather[i].limit();
+                    outbound.poll();
+                }
+                Arrays.fill(gather, 0, n, null);
+                onWritten(written);
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            System.out.println("[INFO] 写入客户端失败: " + remoteAddress + " - " + e.getMessage());
+            close();
+        }
+    }
+
+    // ===================== 关闭 =====================
+
+    /**
+     * 关闭连接，可在任意线程调用，多次调用无副作用
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        loop.execute(this::closeChannel);
+        scheduleDispatch();
+    }
+
+    private void closeChannel() {
+        // 尽量把已排队的响应写出（例如重置密码后的结果）
+        flushOutbound();
+        outbound.clear();
+        outboundLock.lock();
+        try {
+            outboundBytes = 0;
+            outboundWritten.signalAll();
+        } finally {
+            outboundLock.unlock();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing channel: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 已切好的一帧
+     */
+    private static final class InboundFrame {
+        private final byte kind;
+        private final byte[] payload;
+
+        private InboundFrame(byte kind, byte[] payload) {
+            this.kind = kind;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * 提供给 ClientHandler 的输出流：写入只是排队，排队数据超过上限时阻塞到事件循环写出
+     */
+    private class ChannelOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            enqueue(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                enqueue(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() {
+            scheduleFlush();
+        }
+
+        @Override
+        public void close() {
+            NioConnection.this.close();
+        }
+    }
+}
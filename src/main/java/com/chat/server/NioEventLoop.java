@@ -0,0 +1,107 @@
+package com.chat.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * NIO 事件循环 - 一个线程 + 一个 Selector，负责若干连接的读写就绪事件
+ * 其他线程对连接的操作（注册、开启写事件、关闭）通过 execute 投递到本线程执行
+ */
+public class NioEventLoop implements Runnable {
+
+    private final String name;
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile Thread thread;
+
+    public NioEventLoop(String name) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+    }
+
+    public void start() {
+        Thread t = new Thread(this, name);
+        this.thread = t;
+        t.start();
+    }
+
+    /**
+     * 将新连接注册到本事件循环
+     */
+    public void register(SocketChannel channel, NioConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key);
+            } catch (ClosedChannelException e) {
+                connection.close();
+            }
+        });
+    }
+
+    /**
+     * 在事件循环线程中执行任务
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        System.out.println("[NIO] 事件循环 " + name + " 已启动");
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // 处理事件或执行任务时本线程投递的任务不会唤醒 selector，有任务排队时不阻塞
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (!key.isValid()) {
+                        connection.close();
+                        continue;
+                    }
+                    if (key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("[NIO] 事件循环 " + name + " 异常: " + e.getMessage());
+            } catch (Exception e) {
+                System.err.println("[NIO] 事件循环 " + name + " 处理事件出错: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("[NIO] 任务执行出错: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+}
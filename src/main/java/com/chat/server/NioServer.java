@@ -0,0 +1,66 @@
+package com.chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 非阻塞服务器 - 少量事件循环线程承载全部连接
+ * - 主线程负责 accept，新连接轮流分配给各事件循环
+ * - 事件循环只做读写与切帧，业务处理（含数据库访问）交给工作线程池
+ */
+public class NioServer {
+    private final int port;
+    private final NioEventLoop[] loops;
+    private final ExecutorService workers;
+
+    public NioServer(int port) throws IOException {
+        this.port = port;
+        this.loops = new NioEventLoop[ServerConfig.NIO_EVENT_LOOPS];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + i);
+        }
+        this.workers = Executors.newFixedThreadPool(ServerConfig.NIO_WORKER_THREADS, namedThreadFactory("nio-worker-"));
+    }
+
+    public void start() {
+        for (NioEventLoop loop : loops) {
+            loop.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("Server started on port: " + port + " (nio, event loops: " + loops.length
+                    + ", workers: " + ServerConfig.NIO_WORKER_THREADS + ")");
+
+            int next = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                SocketChannel channel = serverChannel.accept();
+                String address = channel.socket().getInetAddress().getHostAddress();
+                System.out.println("New client connected: " + address);
+
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                NioEventLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+                loop.register(channel, NioConnection.open(loop, channel, workers, address));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not listen on port: " + port);
+            e.printStackTrace();
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> new Thread(r, prefix + counter.getAndIncrement());
+    }
+}
@@ -0,0 +1,64 @@
+package com.chat.server;
+
+import com.chat.utils.ProtocolCodecs;
+
+/**
+ * 一条要发给多个连接的消息（群聊扇出）
+ * 每种帧格式最多编码一次，编码结果是不可变的字节数组，所有接收者的发送队列共享同一份
+ */
+public final class OutboundMessage {
+
+    // 不支持紧凑编码的标记
+    private static final byte[] NO_COMPACT = new byte[0];
+
+    private final Object message;
+    private volatile String json;
+    private volatile byte[] lineFrame;
+    private volatile byte[] binaryFrame;
+    private volatile byte[] compactFrame;
+
+    public OutboundMessage(Object message) {
+        this.message = message;
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    /**
+     * 取对应连接格式的帧（并发调用时可能重复编码，结果相同，不影响正确性）
+     */
+    public byte[] frame(boolean binaryFraming, boolean compactEncoding) {
+        if (!binaryFraming) {
+            byte[] frame = lineFrame;
+            if (frame == null) {
+                lineFrame = frame = FrameCodec.encodeLine(json());
+            }
+            return frame;
+        }
+        if (compactEncoding) {
+            byte[] frame = compactFrame;
+            if (frame == null) {
+                byte[] payload = CompactCodec.encode(message);
+                compactFrame = frame = payload == null ? NO_COMPACT
+                        : FrameCodec.encodeBinary(FrameCodec.KIND_COMPACT, payload);
+            }
+            if (frame != NO_COMPACT) {
+                return frame;
+            }
+        }
+        byte[] frame = binaryFrame;
+        if (frame == null) {
+            binaryFrame = frame = FrameCodec.encodeBinary(json());
+        }
+        return frame;
+    }
+
+    private String json() {
+        String s = json;
+        if (s == null) {
+            json = s = ProtocolCodecs.GSON.toJson(message);
+        }
+        return s;
+    }
+}
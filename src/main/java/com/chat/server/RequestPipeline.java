@@ -0,0 +1,105 @@
+package com.chat.server;
+
+import com.chat.utils.DatabaseManager;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 请求流水线 - 一个连接一个，让同一客户端带 requestId 的请求并发执行，互不阻塞
+ * - 查询类请求：直接交给共享的工作线程执行，先完成的先响应（客户端按 requestId 对应）
+ * - 聊天发送：按会话（私聊对象 / 群）映射到固定的串行通道，同一会话内的消息保持发送顺序
+ * 每个连接同时在途的请求数有上限，达到上限时读线程等待，不再继续读取（背压）
+ */
+public class RequestPipeline {
+
+    // 串行通道数：不同会话大概率落在不同通道，相同会话一定在同一通道
+    private static final int ORDERED_LANES = 8;
+
+    // 请求几乎都要访问数据库，而 MySQL 驱动会让虚拟线程在 JDBC 调用期间固定在载体线程上：
+    // 只有 virtual 模式调大了载体线程数（见 Server.configureVirtualThreadScheduler），其它模式用与连接池一样大的
+    // 平台线程池，避免一个客户端的并发查询占满载体线程、拖住所有虚拟线程
+    private static final ExecutorService WORKERS = createWorkers();
+
+    private static ExecutorService createWorkers() {
+        if (ServerConfig.IO_MODE_VIRTUAL.equalsIgnoreCase(ServerConfig.IO_MODE)) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("request-", 0).factory());
+        }
+        return Executors.newFixedThreadPool(Math.max(1, DatabaseManager.getMaximumPoolSize()),
+                Thread.ofPlatform().name("request-", 0).daemon(true).factory());
+    }
+
+    private final Semaphore inFlight = new Semaphore(ServerConfig.PIPELINE_MAX_IN_FLIGHT);
+    private final SerialLane[] lanes = new SerialLane[ORDERED_LANES];
+
+    public RequestPipeline() {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new SerialLane();
+        }
+    }
+
+    /**
+     * 并发执行一个请求
+     */
+    public void submit(Runnable task) throws InterruptedException {
+        inFlight.acquire();
+        WORKERS.execute(() -> runAndRelease(task));
+    }
+
+    /**
+     * 按 key（会话）串行执行：相同 key 的任务按提交顺序依次执行
+     */
+    public void submitOrdered(Object key, Runnable task) throws InterruptedException {
+        inFlight.acquire();
+        lanes[Math.floorMod(key.hashCode(), lanes.length)].add(() -> runAndRelease(task));
+    }
+
+    private void runAndRelease(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            System.err.println("[PIPELINE] 请求处理出错: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * 串行通道：同一时刻最多一个工作线程在执行该通道的任务
+     */
+    private static final class SerialLane {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean running = new AtomicBoolean(false);
+
+        void add(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (running.compareAndSet(false, true)) {
+                WORKERS.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+            } finally {
+                // 任务抛出 Error 时也要释放通道，否则之后的任务永远不会执行
+                running.set(false);
+                if (!tasks.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.chat.server;
 
 import com.chat.handler.ClientHandler;
+import com.chat.utils.DatabaseManager;
 
 import java.io.IOException;
 import java.net.ServerSocket;
@@ -14,17 +15,63 @@ public class Server {
     }
 
     public void start() {
+        // 会话写线程在所有模式下都是虚拟线程，载体线程数在创建任何虚拟线程之前设置
+        configureVirtualThreadScheduler();
+        SessionMonitor.start();
+
+        if (ServerConfig.IO_MODE_NIO.equalsIgnoreCase(ServerConfig.IO_MODE)) {
+            startNio();
+            return;
+        }
+
+        boolean virtual = ServerConfig.IO_MODE_VIRTUAL.equalsIgnoreCase(ServerConfig.IO_MODE);
+        Thread.Builder threadBuilder;
+        if (virtual) {
+            threadBuilder = Thread.ofVirtual().name("client-", 0);
+        } else {
+            threadBuilder = Thread.ofPlatform().name("client-", 0);
+        }
+
         try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("Server started on port: " + port);
+            System.out.println("Server started on port: " + port + (virtual ? " (virtual threads)" : ""));
             while (!Thread.currentThread().isInterrupted()) {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
-                // For each client, create a new thread to handle communication
-                new Thread(new ClientHandler(clientSocket)).start();
+                // For each client, start a new thread (platform or virtual) to handle communication
+                threadBuilder.start(new ClientHandler(clientSocket));
             }
         } catch (IOException e) {
             System.err.println("Could not listen on port: " + port);
             e.printStackTrace();
         }
     }
+
+    /**
+     * 非阻塞模式：Selector 事件循环，协议与阻塞模式完全一致
+     */
+    private void startNio() {
+        try {
+            new NioServer(port).start();
+        } catch (IOException e) {
+            System.err.println("Could not start nio server on port: " + port);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 虚拟线程的载体线程数（所有模式：会话写线程总是虚拟线程，virtual 模式下连接和请求也是）
+     * MySQL 驱动在 synchronized 块内做网络读写，JDBC 调用期间虚拟线程会固定（pin）在载体线程上；
+     * 同时进行的 JDBC 调用受连接池大小限制，因此载体线程数需大于连接池大小，
+     * 否则数据库慢时所有载体线程都被占住，其余连接全部停顿。
+     * 必须在创建第一个虚拟线程之前设置。
+     */
+    private static void configureVirtualThreadScheduler() {
+        String key = "jdk.virtualThreadScheduler.parallelism";
+        if (System.getProperty(key) == null) {
+            int parallelism = Math.max(Runtime.getRuntime().availableProcessors(),
+                    DatabaseManager.getMaximumPoolSize() + 2);
+            System.setProperty(key, String.valueOf(parallelism));
+        }
+        System.out.println("[SERVER] 虚拟线程载体线程数: " + System.getProperty(key));
+    }
 }
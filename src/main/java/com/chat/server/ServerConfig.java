@@ -0,0 +1,103 @@
+package com.chat.server;
+
+/**
+ * 服务器运行参数：统一管理，启动时通过 -Dchat.xxx=... 覆盖默认值。
+ */
+public final class ServerConfig {
+    private ServerConfig() {}
+
+    // 节点号（0~1023），多台服务器共用一个数据库时各不相同，用于生成消息 ID
+    public static final int NODE_ID = Integer.getInteger("chat.node.id", 0);
+
+    // 连接处理模式
+    public static final String IO_MODE_THREAD = "thread";   // 每个连接一个平台线程（默认）
+    public static final String IO_MODE_NIO = "nio";         // Selector 事件循环
+    public static final String IO_MODE_VIRTUAL = "virtual"; // 每个连接一个虚拟线程
+
+    public static final String IO_MODE = System.getProperty("chat.io.mode", IO_MODE_THREAD);
+
+    // NIO 参数
+    public static final int NIO_EVENT_LOOPS = Integer.getInteger("chat.nio.eventLoops",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    public static final int NIO_WORKER_THREADS = Integer.getInteger("chat.nio.workerThreads", 64);
+    public static final int NIO_READ_BUFFER_BYTES = Integer.getInteger("chat.nio.readBufferBytes", 8 * 1024);
+    // 每个连接排队等待事件循环写出的最大字节数，超过时会话写线程阻塞
+    public static final long NIO_OUTBOUND_BYTES = Long.getLong("chat.nio.outboundBytes", 256 * 1024);
+
+    // 单帧（一行 JSON）最大字节数，文件消息包含 Base64 内容，因此放得比较宽
+    public static final int MAX_FRAME_BYTES = Integer.getInteger("chat.maxFrameBytes", 32 * 1024 * 1024);
+
+    // 每个会话发送队列最多缓存的消息条数
+    public static final int SESSION_QUEUE_CAPACITY = Integer.getInteger("chat.session.queueCapacity", 1024);
+
+    // 慢速客户端处理
+    public static final String POLICY_DROP = "drop";             // 丢弃推送
+    public static final String POLICY_COALESCE = "coalesce";     // 丢弃推送，积压消化后补发一条 sync_required
+    public static final String POLICY_DISCONNECT = "disconnect"; // 直接断开
+
+    public static final String SLOW_CONSUMER_POLICY =
+            System.getProperty("chat.session.slowConsumerPolicy", POLICY_COALESCE).toLowerCase();
+    // 推送积压超过该字节数后按策略处理
+    public static final long SESSION_SOFT_PENDING_BYTES = Long.getLong("chat.session.softPendingBytes", 1024 * 1024);
+    // 任何数据积压超过该字节数直接断开
+    public static final long SESSION_MAX_PENDING_BYTES = Long.getLong("chat.session.maxPendingBytes", 8 * 1024 * 1024);
+    // 单次写入阻塞超过该时间（毫秒）视为卡死，断开
+    public static final long SESSION_MAX_STALL_MS = Long.getLong("chat.session.maxStallMs", 30_000);
+    public static final long SESSION_CHECK_INTERVAL_MS = Long.getLong("chat.session.checkIntervalMs", 1_000);
+
+    // 写合并：写线程取到消息后最多再等待这么久（微秒）收集后续消息，或凑满字节数后一次写出；0 表示不等待
+    public static final long SESSION_COALESCE_MICROS = Long.getLong("chat.session.coalesceMicros", 1_000);
+    public static final int SESSION_COALESCE_BYTES = Integer.getInteger("chat.session.coalesceBytes", 16 * 1024);
+
+    // 同一连接同时在途（并发执行中）的带 requestId 请求数上限
+    public static final int PIPELINE_MAX_IN_FLIGHT = Integer.getInteger("chat.pipeline.maxInFlight", 16);
+
+    // 群聊扇出：在线成员数达到阈值时分片并行推送，否则在发送方线程直接推送
+    public static final int FANOUT_PARALLEL_THRESHOLD = Integer.getInteger("chat.fanout.parallelThreshold", 512);
+    public static final int FANOUT_SHARD_SIZE = Integer.getInteger("chat.fanout.shardSize", 256);
+    public static final int FANOUT_PARALLELISM = Integer.getInteger("chat.fanout.parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    // 连接压缩（客户端在登录请求中声明 compression=deflate 后，服务器发出的数据流经过 Deflater 压缩）
+    public static final String COMPRESSION_DEFLATE = "deflate";
+    public static final boolean COMPRESSION_ENABLED =
+            Boolean.parseBoolean(System.getProperty("chat.compression.enabled", "true"));
+    public static final int COMPRESSION_LEVEL = Integer.getInteger("chat.compression.level", 6);
+
+    // 聊天消息异步落库：队列容量、每批最多条数、凑批最长等待（毫秒）
+    public static final int PERSIST_QUEUE_CAPACITY = Integer.getInteger("chat.persist.queueCapacity", 10_000);
+    public static final int PERSIST_BATCH_SIZE = Integer.getInteger("chat.persist.batchSize", 200);
+    public static final long PERSIST_FLUSH_MILLIS = Long.getLong("chat.persist.flushMillis", 5);
+    public static final int PERSIST_MAX_RETRIES = Integer.getInteger("chat.persist.maxRetries", 3);
+
+    // 消息预写日志：写入本地日志并 fsync 后即确认发送，再异步入库；启动时重放未入库的记录
+    public static final boolean JOURNAL_ENABLED =
+            Boolean.parseBoolean(System.getProperty("chat.journal.enabled", "true"));
+    public static final String JOURNAL_DIR = System.getProperty("chat.journal.dir", "journal");
+    public static final int JOURNAL_SEGMENT_BYTES = Integer.getInteger("chat.journal.segmentBytes", 64 * 1024 * 1024);
+
+    // 最近消息缓存：每个会话保留的最新消息条数（0 表示不缓存）、最多缓存的会话数、估算占用的字节数上限
+    public static final int HISTORY_RECENT_SIZE = Integer.getInteger("chat.history.recentSize", 50);
+    public static final int HISTORY_RECENT_CONVERSATIONS = Integer.getInteger("chat.history.recentConversations", 10_000);
+    public static final long HISTORY_RECENT_BYTES = Long.getLong("chat.history.recentBytes", 64L * 1024 * 1024);
+
+    // 已读游标：合并写入数据库的间隔（毫秒）、内存中最多缓存游标的用户数
+    public static final long READ_CURSOR_FLUSH_MILLIS = Long.getLong("chat.readCursor.flushMillis", 1000);
+    public static final int READ_CURSOR_CACHED_USERS = Integer.getInteger("chat.readCursor.cachedUsers", 100_000);
+
+    // 未读计数写入数据库的间隔（毫秒）
+    public static final long UNREAD_FLUSH_MILLIS = Long.getLong("chat.unread.flushMillis", 5000);
+
+    // 用户资料缓存：估算占用的字节数上限、条目有效期（毫秒）
+    public static final long PROFILE_CACHE_BYTES = Long.getLong("chat.profile.cacheBytes", 64L * 1024 * 1024);
+    public static final long PROFILE_TTL_MILLIS = Long.getLong("chat.profile.ttlMillis", 10 * 60_000);
+
+    // 离线消息同步：一次同步的消息上限、每帧条数、断开连接时游标回退的时长（毫秒）、游标写入数据库的间隔（毫秒）
+    public static final int INBOX_MAX_MESSAGES = Integer.getInteger("chat.inbox.maxMessages", 2000);
+    public static final int INBOX_BATCH_SIZE = Integer.getInteger("chat.inbox.batchSize", 500);
+    public static final long INBOX_GRACE_MILLIS = Long.getLong("chat.inbox.graceMillis", 60_000);
+    public static final long INBOX_CURSOR_FLUSH_MILLIS = Long.getLong("chat.inbox.cursorFlushMillis", 1000);
+
+    // 运行指标输出间隔（毫秒），0 表示不输出
+    public static final long METRICS_LOG_INTERVAL_MS = Long.getLong("chat.metrics.logIntervalMs", 60_000);
+}
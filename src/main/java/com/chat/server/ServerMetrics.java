@@ -0,0 +1,85 @@
+package com.chat.server;
+
+import com.chat.core.RecentMessageCache;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 服务器运行指标（全局累计值），由 SessionMonitor 定期输出
+ */
+public final class ServerMetrics {
+    private ServerMetrics() {}
+
+    // 压缩连接：压缩前 / 压缩后写出的字节数
+    private static final LongAdder compressionRawBytes = new LongAdder();
+    private static final LongAdder compressionWireBytes = new LongAdder();
+
+    // 群聊扇出延迟：从消息落库后开始扇出，到最后一个在线成员的发送队列入队完成
+    private static final LatencyHistogram fanoutLatency = new LatencyHistogram();
+    private static final Map<Long, LatencyHistogram> fanoutLatencyByGroup = new ConcurrentHashMap<>();
+
+    public static void recordCompression(long rawBytes, long wireBytes) {
+        compressionRawBytes.add(rawBytes);
+        compressionWireBytes.add(wireBytes);
+    }
+
+    public static long getCompressionRawBytes() {
+        return compressionRawBytes.sum();
+    }
+
+    public static long getCompressionWireBytes() {
+        return compressionWireBytes.sum();
+    }
+
+    /**
+     * 压缩比（压缩前字节数 / 压缩后字节数），没有压缩数据时为 0
+     */
+    public static double getCompressionRatio() {
+        long wire = compressionWireBytes.sum();
+        return wire == 0 ? 0 : (double) compressionRawBytes.sum() / wire;
+    }
+
+    public static void recordFanout(Long groupId, long micros) {
+        fanoutLatency.record(micros);
+        fanoutLatencyByGroup.computeIfAbsent(groupId, k -> new LatencyHistogram()).record(micros);
+    }
+
+    /**
+     * 全部群的扇出延迟
+     */
+    public static LatencyHistogram getFanoutLatency() {
+        return fanoutLatency;
+    }
+
+    /**
+     * 指定群的扇出延迟，没有记录时返回 null
+     */
+    public static LatencyHistogram getFanoutLatency(Long groupId) {
+        return fanoutLatencyByGroup.get(groupId);
+    }
+
+    /**
+     * 指标摘要（一行）
+     */
+    public static String summary() {
+        return String.format("compression raw=%d wire=%d ratio=%.2f fanout[%s] historyCache[hit=%d miss=%d]",
+                getCompressionRawBytes(), getCompressionWireBytes(), getCompressionRatio(), fanoutLatency.summary(),
+                RecentMessageCache.getHits(), RecentMessageCache.getMisses());
+    }
+
+    /**
+     * 扇出 p99 最高的若干个群（每个群一段摘要）
+     */
+    public static String slowestFanoutGroups(int limit) {
+        return fanoutLatencyByGroup.entrySet().stream()
+                .sorted(Comparator.comparingLong(
+                        (Map.Entry<Long, LatencyHistogram> e) -> e.getValue().percentile(0.99)).reversed())
+                .limit(limit)
+                .map(e -> "group " + e.getKey() + " [" + e.getValue().summary() + "]")
+                .collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,53 @@
+package com.chat.server;
+
+import com.chat.utils.OnlineUserManager;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话巡检 - 定期检查在线会话，断开写入卡死的慢速客户端
+ * 积压字节的上限在入队时即时检查，这里只负责"写不动"的情况（没有新消息入队时也能发现）
+ * 同时按 chat.metrics.logIntervalMs 定期输出运行指标
+ */
+public class SessionMonitor {
+
+    private static ScheduledExecutorService scheduler;
+
+    public static synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = ServerConfig.SESSION_CHECK_INTERVAL_MS;
+        scheduler.scheduleWithFixedDelay(SessionMonitor::checkSessions, interval, interval, TimeUnit.MILLISECONDS);
+
+        long metricsInterval = ServerConfig.METRICS_LOG_INTERVAL_MS;
+        if (metricsInterval > 0) {
+            scheduler.scheduleAtFixedRate(SessionMonitor::logMetrics, metricsInterval, metricsInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void logMetrics() {
+        System.out.println("[METRICS] online=" + OnlineUserManager.getOnlineCount() + " " + ServerMetrics.summary());
+        if (ServerMetrics.getFanoutLatency().getCount() > 0) {
+            System.out.println("[METRICS] 扇出最慢的群: " + ServerMetrics.slowestFanoutGroups(5));
+        }
+    }
+
+    private static void checkSessions() {
+        try {
+            for (ClientSession session : OnlineUserManager.getSessions()) {
+                session.checkStall();
+            }
+        } catch (Exception e) {
+            System.err.println("[SESSION] 巡检出错: " + e.getMessage());
+        }
+    }
+}
@@ -28,6 +28,13 @@ public class DatabaseManager {
         return ds.getConnection();
     }
 
+    /**
+     * 连接池最大连接数（同时进行中的 JDBC 调用上限）
+     */
+    public static int getMaximumPoolSize() {
+        return ds.getMaximumPoolSize();
+    }
+
     public static void shutdown() {
         if (ds != null) {
             ds.close();
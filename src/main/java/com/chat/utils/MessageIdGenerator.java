@@ -0,0 +1,61 @@
+package com.chat.utils;
+
+import com.chat.server.ServerConfig;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 消息 ID 生成器（64 位，按时间递增）
+ * 结构：[41 位毫秒时间戳（自 2025-01-01 起）][10 位节点号 chat.node.id][12 位毫秒内序号]
+ * - 在内存中分配，消息入库前即可使用（推送、历史游标），不依赖 AUTO_INCREMENT
+ * - 无锁；同一毫秒内序号用完或时钟回拨时借用下一毫秒，保证本节点内严格递增
+ */
+public class MessageIdGenerator {
+
+    private static final long EPOCH = 1735689600000L;   // 2025-01-01T00:00:00Z
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final long NODE = ServerConfig.NODE_ID & MAX_NODE;
+
+    // 最近一次分配的 [时间戳][序号]（不含节点号）
+    private static final AtomicLong last = new AtomicLong();
+
+    /**
+     * 分配一个新 ID
+     */
+    public static long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        long prev, next;
+        do {
+            prev = last.get();
+            next = now > prev ? now : prev + 1;
+        } while (!last.compareAndSet(prev, next));
+        return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | (NODE << SEQUENCE_BITS)
+                | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * 之后分配的 ID 都大于 id（启动时用数据库和日志中已有的最大 ID 调用，防止重启前后时钟回拨造成重复）
+     */
+    public static void observe(long id) {
+        long state = ((id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS) | (id & SEQUENCE_MASK);
+        last.accumulateAndGet(state, Math::max);
+    }
+
+    /**
+     * 时间戳（毫秒）对应的最小 ID：该时刻之前分配的 ID 都小于它
+     */
+    public static long firstIdAt(long timestampMillis) {
+        return Math.max(0, timestampMillis - EPOCH) << (NODE_BITS + SEQUENCE_BITS);
+    }
+
+    /**
+     * ID 中的时间戳（毫秒）
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+}
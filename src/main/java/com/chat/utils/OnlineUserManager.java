@@ -1,48 +1,76 @@
 package com.chat.utils;
 
-import java.io.PrintWriter;
+import com.chat.server.ClientSession;
+
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 在线用户管理器
- * 功能：保存当前登录用户的 PrintWriter，用于实时推送消息
+ * 功能：保存当前登录用户的会话（ClientSession），用于实时推送消息
+ * 另用一个压缩位图记录在线用户 ID，群聊扇出、在线成员数直接与群成员位图求交集
  */
 public class OnlineUserManager {
 
-    // uid -> PrintWriter (用于向客户端写数据)
-    private static final Map<Long, PrintWriter> onlineUsers = new ConcurrentHashMap<>();
+    // uid -> ClientSession (推送只需入队，由会话写线程写给客户端)
+    private static final Map<Long, ClientSession> onlineUsers = new ConcurrentHashMap<>();
+
+    // 在线用户 ID（读写都在自身上同步）
+    private static final UserIdBitmap onlineIds = new UserIdBitmap();
 
     /**
      * 用户上线
      */
-    public static void addUser(Long uid, PrintWriter out) {
-        if (uid != null && out != null) {
-            onlineUsers.put(uid, out);
+    public static void addUser(Long uid, ClientSession session) {
+        if (uid != null && session != null) {
+            ClientSession previous = onlineUsers.put(uid, session);
+            synchronized (onlineIds) {
+                onlineIds.add(uid);
+            }
+            if (previous != null && previous != session) {
+                // 同一账号在新连接登录，旧连接不再接收推送
+                System.out.println("[ONLINE] 用户UID " + uid + " 在新连接登录，替换旧会话 " + previous.getRemoteAddress());
+            }
             System.out.println("[ONLINE] 用户UID " + uid + " 上线，当前在线人数: " + onlineUsers.size());
         }
     }
 
     /**
-     * 用户下线
+     * 用户下线（只移除与给定会话对应的记录，避免误删同账号的新连接）
+     * 返回：该会话是否仍是用户当前登记的会话（被新连接替换的旧会话返回 false）
      */
-    public static void removeUser(Long uid) {
-        if (uid != null) {
-            PrintWriter removed = onlineUsers.remove(uid);
-            if (removed != null) {
+    public static boolean removeUser(Long uid, ClientSession session) {
+        if (uid != null && session != null) {
+            if (onlineUsers.remove(uid, session)) {
+                synchronized (onlineIds) {
+                    // 移除与再次登录并发时以会话表为准
+                    if (!onlineUsers.containsKey(uid)) {
+                        onlineIds.remove(uid);
+                    }
+                }
                 System.out.println("[ONLINE] 用户UID " + uid + " 下线，当前在线人数: " + onlineUsers.size());
+                return true;
             }
         }
+        return false;
     }
 
     /**
-     * 获取用户的输出流（用于推送）
+     * 获取用户的会话（用于推送）
      */
-    public static PrintWriter getUserOutput(Long uid) {
+    public static ClientSession getSession(Long uid) {
         if (uid == null) return null;
-        PrintWriter out = onlineUsers.get(uid);
-        // 检查连接是否有效
-        return (out != null && !out.checkError()) ? out : null;
+        ClientSession session = onlineUsers.get(uid);
+        // 检查会话是否有效
+        return (session != null && session.isOpen()) ? session : null;
+    }
+
+    /**
+     * 获取全部在线会话（用于巡检）
+     */
+    public static Collection<ClientSession> getSessions() {
+        return onlineUsers.values();
     }
 
     /**
@@ -52,10 +80,28 @@ public class OnlineUserManager {
         return uid != null && onlineUsers.containsKey(uid);
     }
 
+    /**
+     * ids 中在线的用户（新位图，交集在锁内完成，不装箱）
+     */
+    public static UserIdBitmap onlineAmong(UserIdBitmap ids) {
+        synchronized (onlineIds) {
+            return UserIdBitmap.and(ids, onlineIds);
+        }
+    }
+
+    /**
+     * ids 中在线的人数
+     */
+    public static int countOnline(UserIdBitmap ids) {
+        synchronized (onlineIds) {
+            return ids.andCardinality(onlineIds);
+        }
+    }
+
     /**
      * 获取在线人数（可选）
      */
     public static int getOnlineCount() {
         return onlineUsers.size();
     }
-}
\ No newline at end of file
+}
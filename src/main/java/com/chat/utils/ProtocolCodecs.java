@@ -0,0 +1,36 @@
+package com.chat.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapterFactory;
+
+/**
+ * 协议编解码器 - 全局共享的 Gson 实例
+ * 编译期为 com.chat.protocol 下的协议类生成了流式 TypeAdapter（GeneratedProtocolAdapters），
+ * 收发消息不再走反射绑定；生成类不存在、或某个类没有生成时自动回退到 Gson 的反射绑定。
+ * 可用 -Dchat.codec=reflect 强制使用反射（用于对比排查）。
+ */
+public final class ProtocolCodecs {
+    private ProtocolCodecs() {}
+
+    private static final String GENERATED_FACTORY = "com.chat.protocol.GeneratedProtocolAdapters";
+
+    public static final Gson GSON = create();
+
+    private static Gson create() {
+        GsonBuilder builder = new GsonBuilder();
+        if ("reflect".equalsIgnoreCase(System.getProperty("chat.codec"))) {
+            System.out.println("[CODEC] 使用反射绑定");
+            return builder.create();
+        }
+        try {
+            TypeAdapterFactory factory = (TypeAdapterFactory) Class.forName(GENERATED_FACTORY)
+                    .getDeclaredConstructor().newInstance();
+            builder.registerTypeAdapterFactory(factory);
+            System.out.println("[CODEC] 使用生成的协议编解码器");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.out.println("[CODEC] 未找到生成的协议编解码器，使用反射绑定: " + e);
+        }
+        return builder.create();
+    }
+}
@@ -0,0 +1,394 @@
+package com.chat.utils;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * 压缩位图（用户 ID / 群 ID 集合，元素为非负 long）
+ * 结构同 Roaring Bitmap：按高 48 位分桶，每桶保存低 16 位
+ * - 桶内元素不超过 4096 个时用有序 char 数组（每个元素 2 字节）
+ * - 超过时改用 65536 位的位图（固定 8KB），交集按 64 位字做按位与
+ * 元素不装箱，交集、计数、遍历都在原始类型上完成。非线程安全，共享时由调用方加锁或写时复制。
+ */
+public final class UserIdBitmap {
+
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    // 桶的高位键（升序）与对应的桶，前 size 个有效
+    private long[] keys;
+    private Container[] containers;
+    private int size;
+
+    public UserIdBitmap() {
+        keys = new long[4];
+        containers = new Container[4];
+    }
+
+    private UserIdBitmap(int capacity) {
+        keys = new long[Math.max(4, capacity)];
+        containers = new Container[Math.max(4, capacity)];
+    }
+
+    /**
+     * 由一组 ID 构造
+     */
+    public static UserIdBitmap of(Iterable<Long> ids) {
+        UserIdBitmap bitmap = new UserIdBitmap();
+        for (Long id : ids) {
+            if (id != null) {
+                bitmap.add(id);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * 加入一个 ID，返回是否新加入
+     */
+    public boolean add(long id) {
+        long high = id >>> 16;
+        int i = indexOf(high);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, high, new Container());
+        }
+        return containers[i].add((char) id);
+    }
+
+    /**
+     * 移除一个 ID，返回是否存在
+     */
+    public boolean remove(long id) {
+        int i = indexOf(id >>> 16);
+        if (i < 0 || !containers[i].remove((char) id)) {
+            return false;
+        }
+        if (containers[i].cardinality == 0) {
+            removeContainer(i);
+        }
+        return true;
+    }
+
+    public boolean contains(long id) {
+        int i = indexOf(id >>> 16);
+        return i >= 0 && containers[i].contains((char) id);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality;
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 交集（新位图，a、b 不变）
+     */
+    public static UserIdBitmap and(UserIdBitmap a, UserIdBitmap b) {
+        UserIdBitmap result = new UserIdBitmap(Math.min(a.size, b.size));
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c != null) {
+                    result.insertContainer(result.size, a.keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 交集的元素个数（不构造交集）
+     */
+    public int andCardinality(UserIdBitmap other) {
+        int total = 0;
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                total += containers[i].andCardinality(other.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 按升序遍历
+     */
+    public void forEach(LongConsumer action) {
+        for (int i = 0; i < size; i++) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    /**
+     * 全部元素（升序）
+     */
+    public long[] toArray() {
+        long[] result = new long[cardinality()];
+        int[] n = {0};
+        forEach(id -> result[n[0]++] = id);
+        return result;
+    }
+
+    /**
+     * 深拷贝（写时复制用）
+     */
+    public UserIdBitmap copy() {
+        UserIdBitmap copy = new UserIdBitmap(size);
+        for (int i = 0; i < size; i++) {
+            copy.keys[i] = keys[i];
+            copy.containers[i] = containers[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    private int indexOf(long high) {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < high) {
+                lo = mid + 1;
+            } else if (keys[mid] > high) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    private void insertContainer(int index, long high, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = high;
+        containers[index] = container;
+        size++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, size - index - 1);
+        containers[--size] = null;
+    }
+
+    /**
+     * 一个桶：values 非空时为有序数组，否则为位图 bits
+     */
+    private static final class Container {
+        char[] values = new char[4];
+        long[] bits;
+        int cardinality;
+
+        boolean contains(char low) {
+            if (values != null) {
+                return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+            }
+            return (bits[low >>> 6] & (1L << low)) != 0;
+        }
+
+        boolean add(char low) {
+            if (values != null) {
+                int i = Arrays.binarySearch(values, 0, cardinality, low);
+                if (i >= 0) {
+                    return false;
+                }
+                if (cardinality == ARRAY_MAX) {
+                    toBitmap();
+                    return add(low);
+                }
+                i = -i - 1;
+                if (cardinality == values.length) {
+                    values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+                }
+                System.arraycopy(values, i, values, i + 1, cardinality - i);
+                values[i] = low;
+                cardinality++;
+                return true;
+            }
+            long word = bits[low >>> 6];
+            long mask = 1L << low;
+            if ((word & mask) != 0) {
+                return false;
+            }
+            bits[low >>> 6] = word | mask;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (values != null) {
+                int i = Arrays.binarySearch(values, 0, cardinality, low);
+                if (i < 0) {
+                    return false;
+                }
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+                return true;
+            }
+            long word = bits[low >>> 6];
+            long mask = 1L << low;
+            if ((word & mask) == 0) {
+                return false;
+            }
+            bits[low >>> 6] = word & ~mask;
+            if (--cardinality <= ARRAY_MAX) {
+                toArray();
+            }
+            return true;
+        }
+
+        /**
+         * 交集，结果为空时返回 null
+         */
+        Container and(Container other) {
+            Container result = new Container();
+            if (values != null && other.values != null) {
+                result.values = new char[Math.min(cardinality, other.cardinality)];
+                int i = 0, j = 0, n = 0;
+                while (i < cardinality && j < other.cardinality) {
+                    if (values[i] < other.values[j]) {
+                        i++;
+                    } else if (values[i] > other.values[j]) {
+                        j++;
+                    } else {
+                        result.values[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+                result.cardinality = n;
+            } else if (values != null || other.values != null) {
+                Container array = values != null ? this : other;
+                Container bitmap = values != null ? other : this;
+                result.values = new char[array.cardinality];
+                int n = 0;
+                for (int i = 0; i < array.cardinality; i++) {
+                    char low = array.values[i];
+                    if ((bitmap.bits[low >>> 6] & (1L << low)) != 0) {
+                        result.values[n++] = low;
+                    }
+                }
+                result.cardinality = n;
+            } else {
+                result.values = null;
+                result.bits = new long[BITMAP_WORDS];
+                int n = 0;
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    long word = bits[w] & other.bits[w];
+                    result.bits[w] = word;
+                    n += Long.bitCount(word);
+                }
+                result.cardinality = n;
+                if (n <= ARRAY_MAX) {
+                    result.toArray();
+                }
+            }
+            return result.cardinality > 0 ? result : null;
+        }
+
+        int andCardinality(Container other) {
+            if (values != null && other.values != null) {
+                int i = 0, j = 0, n = 0;
+                while (i < cardinality && j < other.cardinality) {
+                    if (values[i] < other.values[j]) {
+                        i++;
+                    } else if (values[i] > other.values[j]) {
+                        j++;
+                    } else {
+                        n++;
+                        i++;
+                        j++;
+                    }
+                }
+                return n;
+            }
+            if (values != null || other.values != null) {
+                Container array = values != null ? this : other;
+                Container bitmap = values != null ? other : this;
+                int n = 0;
+                for (int i = 0; i < array.cardinality; i++) {
+                    char low = array.values[i];
+                    if ((bitmap.bits[low >>> 6] & (1L << low)) != 0) {
+                        n++;
+                    }
+                }
+                return n;
+            }
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                n += Long.bitCount(bits[w] & other.bits[w]);
+            }
+            return n;
+        }
+
+        void forEach(long base, LongConsumer action) {
+            if (values != null) {
+                for (int i = 0; i < cardinality; i++) {
+                    action.accept(base | values[i]);
+                }
+                return;
+            }
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    action.accept(base | ((long) w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        Container copy() {
+            Container copy = new Container();
+            copy.values = values != null ? Arrays.copyOf(values, Math.max(4, cardinality)) : null;
+            copy.bits = bits != null ? bits.clone() : null;
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        private void toBitmap() {
+            bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                char low = values[i];
+                bits[low >>> 6] |= 1L << low;
+            }
+            values = null;
+        }
+
+        private void toArray() {
+            values = new char[Math.max(4, cardinality)];
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            bits = null;
+        }
+    }
+}